@@ -0,0 +1,86 @@
+package server.benchmark;
+
+import server.computation.DataComputation;
+import server.exception.InvalidVariableRangeException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// The ConcurrencyStressTest class checks that concurrent requests do not see each other's variables or expressions.
+// Every request is first computed alone; then many threads compute the same requests in turn, each request with its own
+// DataComputation as the server does, and every result must be the same as when it was computed alone.
+// The requests use different variable names, expressions, computation and merge types, and include grids large enough
+// to be evaluated in parallel. The result cache is disabled, so that every request is really computed.
+// Usage: ConcurrencyStressTest [threads] [requests per thread]; by default 4 threads per processor and 2000 requests each.
+// It exits with status 1 if a result differs.
+public class ConcurrencyStressTest {
+
+    // The ranges, expressions, computation type and merge type of each request
+    private static final String[][] REQUESTS = {
+            {"x:0:1:100", "(x*2)", "MAX", "GRID"},
+            {"y:0:1:50,z:1:1:3", "((y+z)/z)", "MIN", "GRID"},
+            {"a:0:0.5:10,b:0:0.5:10", "(a-b)", "AVG", "LIST"},
+            {"a:-1:0.1:1,b:0:1:20", "((a*b)+(b^2))", "AVG", "GRID"},
+            {"b:0:1:20,a:-1:0.1:1", "((a*b)+(b^2));(a-b)", "MAX", "GRID"},
+            {"x0:-1:0.002:1,x1:-10:0.02:10", "((x0+(2.0^x1))/(21.1-x0))", "AVG", "GRID"},
+            {"p:1:1:1000", "(1/p)", "AVG", "LIST"},
+            {"q:0:1:10,r:0:1:10", "(q/r)", "AVG", "GRID"},
+            {"u:0:1:99,v:0:1:99", "(u+v)", "COUNT", "GRID"},
+            {"w:0:0.25:5", "((w^3)-(2*w))", "MIN", "LIST"},
+    };
+
+    public static void main(String[] args) throws Exception {
+        // Read when DataComputation is loaded
+        System.setProperty("server.resultCacheBytes", "0");
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4 * Runtime.getRuntime().availableProcessors();
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        String[] expected = new String[REQUESTS.length];
+        for (int i = 0; i < REQUESTS.length; i++) {
+            expected[i] = compute(REQUESTS[i]);
+            System.out.println(String.join(" ", REQUESTS[i]) + " -> " + expected[i]);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> results = new ArrayList<>();
+        long startTime = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            results.add(pool.submit(() -> {
+                int mismatches = 0;
+                for (int k = 0; k < iterations; k++) {
+                    int i = (k + offset) % REQUESTS.length;
+                    String result = compute(REQUESTS[i]);
+                    if (!result.equals(expected[i])) {
+                        if (mismatches++ < 5) {
+                            System.out.println("Mismatch: " + String.join(" ", REQUESTS[i]) + " -> " + result);
+                        }
+                    }
+                }
+                return mismatches;
+            }));
+        }
+        int mismatches = 0;
+        for (Future<Integer> result : results) {
+            mismatches += result.get();
+        }
+        pool.shutdown();
+        System.out.printf("%d requests computed by %d threads in %d ms, %d mismatches%n",
+                (long) threads * iterations, threads, (System.nanoTime() - startTime) / 1_000_000, mismatches);
+        if (mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    // This method computes a request with its own DataComputation, as the server does
+    private static String compute(String[] request) throws InvalidVariableRangeException {
+        DataComputation dataComp = new DataComputation();
+        for (String range : request[0].split(",")) {
+            dataComp.addVariableRange(range);
+        }
+        return dataComp.computeExpression(request[1], request[2], request[3]);
+    }
+}
@@ -0,0 +1,147 @@
+package server.benchmark;
+
+import server.Server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// The ConnectionLoadTest class checks that a server serves many concurrent connections without head-of-line blocking.
+// It opens all the connections first and keeps them open, then every connection sends a STAT_REQS and a small COUNT_LIST request
+// and waits for both responses. A server serving a connection per platform thread only answers the first few connections,
+// whose clients never leave, so the others time out; in virtual or nio mode every connection is answered.
+// Usage: ConnectionLoadTest [connections] [virtual|nio|blocking|host:port]. By default it opens 10000 connections to a server
+// started in virtual mode in this JVM, which needs Java 21 and twice as many file descriptors as connections.
+// It exits with status 1 if a response is missing or wrong.
+public class ConnectionLoadTest {
+
+    private static final String REQUESTS = "STAT_REQS\nCOUNT_LIST;x0:0:1:100,x1:0:1:100;(x0+x1)\n";
+    // The response of the COUNT_LIST request, after its processing time
+    private static final String COUNT = ";101";
+    // The longest time in milliseconds the connections wait for all their responses
+    private static final long READ_TIMEOUT = 30_000;
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        String target = args.length > 1 ? args[1] : "virtual";
+
+        Server server = null;
+        String host = "localhost";
+        int port;
+        if (target.contains(":")) {
+            host = target.substring(0, target.lastIndexOf(':'));
+            port = Integer.parseInt(target.substring(target.lastIndexOf(':') + 1));
+        } else {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            }
+            server = new Server(port, Server.Mode.valueOf(target.toUpperCase()));
+            Thread thread = new Thread(server::start, "load-test-server");
+            thread.setDaemon(true);
+            thread.start();
+            awaitServer(host, port);
+        }
+
+        int threads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+        ExecutorService clients = Executors.newFixedThreadPool(threads);
+        List<Socket> sockets = new ArrayList<>(connections);
+        int failures;
+        long startTime = System.nanoTime();
+        try {
+            // All the connections are open before the first request is sent
+            for (int i = 0; i < connections; i++) {
+                sockets.add(new Socket(host, port));
+            }
+            long connectTime = System.nanoTime() - startTime;
+            System.out.printf("%d connections open in %d ms%n", connections, connectTime / 1_000_000);
+
+            // Each client thread sends the requests of its share of the connections, then reads their responses
+            long requestTime = System.nanoTime();
+            long deadline = System.currentTimeMillis() + READ_TIMEOUT;
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                List<Socket> share = sockets.subList(connections * t / threads, connections * (t + 1) / threads);
+                results.add(clients.submit(() -> exchange(share, deadline)));
+            }
+            failures = 0;
+            for (Future<Integer> result : results) {
+                failures += result.get();
+            }
+            System.out.printf("%d requests answered in %d ms, %d connections failed%n",
+                    2 * (connections - failures), (System.nanoTime() - requestTime) / 1_000_000, failures);
+        } finally {
+            for (Socket socket : sockets) {
+                close(socket);
+            }
+            clients.shutdownNow();
+            if (server != null) {
+                server.stop();
+            }
+        }
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    // This method sends the requests over each connection, then reads their responses; it returns the number of connections
+    // whose responses are missing or wrong, or not received before the deadline
+    private static int exchange(List<Socket> sockets, long deadline) {
+        byte[] requests = REQUESTS.getBytes(StandardCharsets.US_ASCII);
+        int failures = 0;
+        List<Socket> sent = new ArrayList<>(sockets.size());
+        for (Socket socket : sockets) {
+            try {
+                OutputStream out = socket.getOutputStream();
+                out.write(requests);
+                out.flush();
+                sent.add(socket);
+            } catch (IOException e) {
+                failures++;
+            }
+        }
+        for (Socket socket : sent) {
+            try {
+                socket.setSoTimeout((int) Math.max(1, deadline - System.currentTimeMillis()));
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                String stat = in.readLine();
+                String count = in.readLine();
+                if (stat == null || !stat.startsWith("OK;") || count == null || !count.startsWith("OK;") || !count.endsWith(COUNT)) {
+                    System.out.println("Wrong responses: " + stat + " / " + count);
+                    failures++;
+                }
+            } catch (IOException e) {
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    // This method waits until the server accepts connections
+    private static void awaitServer(String host, int port) throws InterruptedException {
+        while (true) {
+            try (Socket ignored = new Socket(host, port)) {
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.getOutputStream().write("BYE\n".getBytes(StandardCharsets.US_ASCII));
+            socket.close();
+        } catch (IOException e) {
+            // The connection is already closed
+        }
+    }
+}
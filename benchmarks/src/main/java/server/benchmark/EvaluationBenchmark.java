@@ -0,0 +1,72 @@
+package server.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import server.computation.ComputationContext;
+import server.computation.DataComputation;
+import server.computation.ExpressionClassGenerator;
+import server.exception.ComputationException;
+import server.exception.ExpressionParsingException;
+import server.exception.InvalidVariableRangeException;
+
+import java.util.concurrent.TimeUnit;
+
+// Measures the evaluation of whole computation requests: expressions of increasing depth, one or several expressions per request,
+// with 1 to 5 variables and up to 10^7 points
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class EvaluationBenchmark {
+
+    @Param({"MAX", "AVG"})
+    public String computationKind;
+
+    @Param({"GRID"})
+    public String valuesKind;
+
+    @Param({"2", "5"})
+    public int variables;
+
+    @Param({"2", "6"})
+    public int depth;
+
+    // The number of ';'-separated expressions of the request
+    @Param({"1", "3"})
+    public int expressions;
+
+    @Param({"10000", "1000000", "10000000"})
+    public long points;
+
+    // interpreter: the program is interpreted; generated: it is evaluated by a generated class, as hot expressions are
+    @Param({"interpreter", "generated"})
+    public String evaluator;
+
+    private ComputationContext context;
+
+    @Setup
+    public void setup() throws InvalidVariableRangeException, ExpressionParsingException, ComputationException {
+        String[] names = Workloads.variables(variables);
+        StringBuilder expression = new StringBuilder();
+        for (int i = 0; i < expressions; i++) {
+            if (i > 0) {
+                expression.append(';');
+            }
+            expression.append(Workloads.expression(depth + i, names));
+        }
+        DataComputation computation = new DataComputation();
+        for (String range : Workloads.ranges(names, points, valuesKind).split(",")) {
+            computation.addVariableRange(range);
+        }
+        context = computation.prepare(expression.toString(), computationKind, valuesKind);
+        context = new ComputationContext(context.getRanges(), context.getProgram(),
+                evaluator.equals("generated") ? ExpressionClassGenerator.generate(context.getProgram()) : null,
+                computationKind, valuesKind);
+    }
+
+    @Benchmark
+    public String compute() {
+        return context.compute();
+    }
+}
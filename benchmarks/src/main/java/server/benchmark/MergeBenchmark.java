@@ -0,0 +1,55 @@
+package server.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import server.computation.PointIterator;
+import server.computation.VariableRange;
+import server.exception.InvalidVariableRangeException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Measures the enumeration of the merged points of GRID and LIST requests with 1 to 5 variables
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class MergeBenchmark {
+
+    @Param({"GRID", "LIST"})
+    public String valuesKind;
+
+    @Param({"1", "2", "3", "5"})
+    public int variables;
+
+    @Param({"10000", "1000000", "10000000"})
+    public long points;
+
+    private List<VariableRange> ranges;
+
+    @Setup
+    public void setup() throws InvalidVariableRangeException {
+        ranges = new ArrayList<>();
+        for (String range : Workloads.ranges(Workloads.variables(variables), points, valuesKind).split(",")) {
+            String[] parts = range.split(":");
+            ranges.add(VariableRange.of(parts[0], Double.parseDouble(parts[1]), Double.parseDouble(parts[2]), Double.parseDouble(parts[3])));
+        }
+    }
+
+    @Benchmark
+    public void enumerate(Blackhole blackhole) {
+        PointIterator iterator = PointIterator.of(ranges, valuesKind);
+        double[] point = new double[iterator.dimension()];
+        while (iterator.next(point)) {
+            blackhole.consume(point[0]);
+        }
+    }
+
+    @Benchmark
+    public long count() {
+        return PointIterator.of(ranges, valuesKind).size();
+    }
+}
@@ -0,0 +1,50 @@
+package server.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import server.computation.ExpressionProgram;
+import server.computation.Node;
+import server.computation.Parser;
+import server.exception.ComputationException;
+import server.exception.ExpressionParsingException;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+// Measures parsing and compilation of balanced and deeply nested expressions
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+
+    // balanced: a complete tree of the given depth; nested: a chain of the given depth
+    @Param({"balanced", "nested"})
+    public String shape;
+
+    @Param({"4", "10", "1000"})
+    public int depth;
+
+    private String expression;
+    private Node parsed;
+
+    @Setup
+    public void setup() throws ExpressionParsingException {
+        // A complete tree of depth 1000 would not fit in memory, so balanced trees are capped
+        expression = shape.equals("balanced")
+                ? Workloads.expression(Math.min(depth, 16), Workloads.variables(3))
+                : Workloads.nestedExpression(depth, "x0");
+        parsed = new Parser(expression).parse();
+    }
+
+    @Benchmark
+    public Node parse() throws ExpressionParsingException {
+        return new Parser(expression).parse();
+    }
+
+    @Benchmark
+    public ExpressionProgram compile() throws ComputationException {
+        return ExpressionProgram.compile(Collections.singletonList(parsed));
+    }
+}
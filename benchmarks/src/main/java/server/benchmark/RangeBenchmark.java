@@ -0,0 +1,40 @@
+package server.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import server.computation.VariableRange;
+import server.exception.InvalidVariableRangeException;
+
+import java.util.concurrent.TimeUnit;
+
+// Measures the generation of variable ranges and the access to all their values
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RangeBenchmark {
+
+    @Param({"0.1", "0.001", "0.00001"})
+    public double increment;
+
+    @Param({"-1.5"})
+    public double start;
+
+    @Param({"1.5"})
+    public double end;
+
+    @Benchmark
+    public VariableRange build() throws InvalidVariableRangeException {
+        return VariableRange.of("x", start, increment, end);
+    }
+
+    @Benchmark
+    public void buildAndRead(Blackhole blackhole) throws InvalidVariableRangeException {
+        VariableRange range = VariableRange.of("x", start, increment, end);
+        for (int i = 0; i < range.size(); i++) {
+            blackhole.consume(range.valueAt(i));
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package server.benchmark;
+
+import server.computation.VariableRange;
+import server.exception.InvalidVariableRangeException;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// The RangeDifferentialTest class checks that VariableRange gives the same values as the loop the server used to generate them with,
+// which formatted each value with String.format and parsed it back. Random ranges, with starts of every magnitude and increments
+// of many decimals, must have the same number of values and the same doubles, bit for bit.
+// Usage: RangeDifferentialTest [ranges] [seed]; by default 100000 ranges. It exits with status 1 if a range differs.
+public class RangeDifferentialTest {
+
+    private static final String[] INCREMENTS = {"0.1", "0.01", "0.001", "0.0001", "1e-4", "2.5e-3", "0.015", "0.05", "0.125", "0.2",
+            "0.25", "0.3", "0.33", "0.5", "0.7", "1", "1.05", "1.5", "2", "3", "10", "1e1", "100", "NaN"};
+    // Ranges with more values are skipped, to keep the test short
+    private static final int MAX_VALUES = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        int ranges = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        Random random = new Random(args.length > 1 ? Long.parseLong(args[1]) : 42);
+        int compared = 0;
+        int differences = 0;
+        for (int n = 0; n < ranges; n++) {
+            double increment = Double.parseDouble(INCREMENTS[random.nextInt(INCREMENTS.length)]);
+            double start = start(random);
+            double step = Double.isNaN(increment) ? 1 : increment;
+            double end = random.nextInt(5) == 0 ? start + step * random.nextInt(50) : start + step * random.nextInt(2000) + random.nextDouble() * step;
+            if (random.nextInt(10) == 0) {
+                end = Double.parseDouble(String.format("%.3f", end).replace(",", "."));
+            }
+            double[] expected = legacy(start, increment, end);
+            if (expected == null) {
+                continue;
+            }
+            compared++;
+            VariableRange range;
+            try {
+                range = VariableRange.of("x", start, increment, end);
+            } catch (InvalidVariableRangeException e) {
+                differences++;
+                report(start, increment, end, e.getMessage());
+                continue;
+            }
+            double[] values = new double[range.size()];
+            for (int k = 0; k < values.length; k++) {
+                values[k] = range.valueAt(k);
+            }
+            if (!Arrays.equals(values, expected)) {
+                differences++;
+                report(start, increment, end, values.length + " values instead of " + expected.length);
+            }
+        }
+        System.out.printf("%d ranges compared, %d differences%n", compared, differences);
+        if (differences > 0) {
+            System.exit(1);
+        }
+    }
+
+    // Returns a start of one of the magnitudes clients send
+    private static double start(Random random) {
+        switch (random.nextInt(5)) {
+            case 0:
+                return (random.nextInt(20001) - 10000) / 1000.0;
+            case 1:
+                return random.nextGaussian() * 100;
+            case 2:
+                return (random.nextInt(2001) - 1000) * 0.1;
+            case 3:
+                return (random.nextInt(200001) - 100000) / Math.pow(10, random.nextInt(6));
+            default:
+                return random.nextDouble() * Math.pow(10, random.nextInt(12));
+        }
+    }
+
+    // The values generated by the original loop of DataComputation.addVariableRange, or null if there are more than MAX_VALUES
+    private static double[] legacy(double start, double increment, double end) {
+        String format = "%." + VariableRange.getSignificantDigits(increment) + "f";
+        double[] ranges = new double[16];
+        int size = 0;
+        for (double i = start; i <= end; i += increment) {
+            String formattedValue = String.format(format, i);
+            formattedValue = formattedValue.replace(",", ".");
+            double truncated = Double.parseDouble(formattedValue);
+            if (truncated == -0.0) {
+                truncated = 0.0;
+            }
+            i = truncated;
+            if (size == MAX_VALUES) {
+                return null;
+            }
+            if (size == ranges.length) {
+                ranges = Arrays.copyOf(ranges, size * 2);
+            }
+            ranges[size++] = truncated;
+        }
+        return Arrays.copyOf(ranges, size);
+    }
+
+    private static void report(double start, double increment, double end, String difference) {
+        System.out.println("x:" + start + ":" + increment + ":" + end + " -> " + difference);
+    }
+}
@@ -0,0 +1,153 @@
+package server.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import server.Server;
+import server.request.BinaryProtocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// Measures the end-to-end throughput of a Server running in the benchmark JVM, with one connection per benchmark thread
+// sending a request and waiting for its response
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SocketThroughputBenchmark {
+
+    @Param({"BLOCKING", "NIO"})
+    public String mode;
+
+    // stat: a statistics request; small: a small LIST request; grid: a GRID request of 10^4 points
+    @Param({"stat", "small", "grid"})
+    public String workload;
+
+    // text: request lines; binary: request frames of the binary protocol
+    @Param({"text", "binary"})
+    public String protocol;
+
+    private Server server;
+    private int port;
+    private String request;
+    // The request as a frame of the binary protocol
+    private byte[] frame;
+
+    @Setup(Level.Trial)
+    public void startServer() throws IOException, InterruptedException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new Server(port, Server.Mode.valueOf(mode));
+        Thread thread = new Thread(server::start, "benchmark-server");
+        thread.setDaemon(true);
+        thread.start();
+        // Waits until the server accepts connections
+        while (true) {
+            try (Socket ignored = new Socket("localhost", port)) {
+                break;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        switch (workload) {
+            case "stat":
+                request = "STAT_REQS";
+                frame = statFrame(request);
+                break;
+            case "small":
+                request = "COUNT_LIST;x0:0:1:100,x1:0:1:100;(x0+x1)";
+                frame = computationFrame(3, 1, new double[]{0, 1, 100, 0, 1, 100}, "(x0+x1)");
+                break;
+            default:
+                request = "MAX_GRID;x0:-1:0.02:1,x1:-10:0.2:10;((x0+(2.0^x1))/(21.1-x0))";
+                frame = computationFrame(1, 0, new double[]{-1, 0.02, 1, -10, 0.2, 10}, "((x0+(2.0^x1))/(21.1-x0))");
+        }
+    }
+
+    // This method encodes a STAT frame
+    private static byte[] statFrame(String statistic) {
+        byte[] name = statistic.getBytes(StandardCharsets.US_ASCII);
+        return ByteBuffer.allocate(5 + name.length).putInt(1 + name.length).put(BinaryProtocol.STAT).put(name).array();
+    }
+
+    // This method encodes a COMPUTE frame over the variables x0, x1, ..., whose ranges are given by three bounds each
+    private static byte[] computationFrame(int computationKind, int valuesKind, double[] bounds, String expression) {
+        int variables = bounds.length / 3;
+        byte[] expressions = expression.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(13 + variables * 27 + expressions.length);
+        frame.putInt(frame.capacity() - 4).put(BinaryProtocol.COMPUTE).put((byte) computationKind).put((byte) valuesKind)
+                .putInt(0).putShort((short) variables);
+        for (int i = 0; i < variables; i++) {
+            frame.put((byte) 2).put((byte) 'x').put((byte) ('0' + i)).putDouble(bounds[3 * i]).putDouble(bounds[3 * i + 1]).putDouble(bounds[3 * i + 2]);
+        }
+        return frame.put(expressions).array();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        server.stop();
+    }
+
+    // The connection of a benchmark thread
+    @State(Scope.Thread)
+    public static class Client {
+        private Socket socket;
+        private PrintWriter out;
+        private BufferedReader in;
+        // The streams of a client of the binary protocol
+        private DataOutputStream frameOut;
+        private DataInputStream frameIn;
+
+        @Setup(Level.Trial)
+        public void connect(SocketThroughputBenchmark benchmark) throws IOException {
+            socket = new Socket("localhost", benchmark.port);
+            socket.setTcpNoDelay(true);
+            if (benchmark.protocol.equals("binary")) {
+                frameOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                frameIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                frameOut.write(BinaryProtocol.MAGIC);
+                return;
+            }
+            out = new PrintWriter(socket.getOutputStream(), true);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        }
+
+        @TearDown(Level.Trial)
+        public void disconnect() throws IOException {
+            if (frameOut != null) {
+                frameOut.writeInt(1);
+                frameOut.write(BinaryProtocol.BYE);
+                frameOut.flush();
+            } else {
+                out.println("BYE");
+            }
+            socket.close();
+        }
+    }
+
+    @Benchmark
+    public Object request(Client client) throws IOException {
+        if (client.frameOut != null) {
+            client.frameOut.write(frame);
+            client.frameOut.flush();
+            byte[] response = new byte[client.frameIn.readInt()];
+            client.frameIn.readFully(response);
+            return response;
+        }
+        client.out.println(request);
+        return client.in.readLine();
+    }
+}
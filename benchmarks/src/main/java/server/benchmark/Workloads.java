@@ -0,0 +1,66 @@
+package server.benchmark;
+
+// The Workloads class builds the expressions and variable ranges used by the benchmarks
+final class Workloads {
+
+    private static final String[] VARIABLES = {"x0", "x1", "x2", "x3", "x4"};
+    private static final char[] OPERATORS = {'+', '*', '-', '/', '^'};
+
+    private Workloads() {
+    }
+
+    // Returns the names of the first count variables
+    static String[] variables(int count) {
+        String[] names = new String[count];
+        System.arraycopy(VARIABLES, 0, names, 0, count);
+        return names;
+    }
+
+    // Builds a balanced expression of the given depth over the given variables, cycling through the operators.
+    // Divisions always have a divisor that cannot be zero on the ranges built by ranges().
+    static String expression(int depth, String[] variables) {
+        return expression(depth, variables, new int[1]);
+    }
+
+    private static String expression(int depth, String[] variables, int[] counter) {
+        int n = counter[0]++;
+        if (depth == 0) {
+            return n % 3 == 2 ? Double.toString(1.5 + n % 7) : variables[n % variables.length];
+        }
+        char operator = OPERATORS[n % OPERATORS.length];
+        if (operator == '^') {
+            return "(" + expression(depth - 1, variables, counter) + "^2)";
+        }
+        if (operator == '/') {
+            return "(" + expression(depth - 1, variables, counter) + "/(" + variables[n % variables.length] + "+20))";
+        }
+        return "(" + expression(depth - 1, variables, counter) + operator + expression(depth - 1, variables, counter) + ")";
+    }
+
+    // Builds an expression nested to the given depth, every level adding an operation to the previous one
+    static String nestedExpression(int depth, String variable) {
+        StringBuilder expression = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            expression.append('(');
+        }
+        expression.append(variable);
+        for (int i = 0; i < depth; i++) {
+            expression.append(OPERATORS[i % 3]).append(i % 10).append(')');
+        }
+        return expression.toString();
+    }
+
+    // Builds the variable ranges of a request with about the given number of points in total.
+    // For GRID each variable gets the same number of values, for LIST every variable gets all of them.
+    static String ranges(String[] variables, long points, String valuesKind) {
+        long values = valuesKind.equals("GRID") ? Math.max(1, Math.round(Math.pow(points, 1.0 / variables.length))) : points;
+        StringBuilder ranges = new StringBuilder();
+        for (int i = 0; i < variables.length; i++) {
+            if (i > 0) {
+                ranges.append(',');
+            }
+            ranges.append(variables[i]).append(":0:0.01:").append((values - 1) / 100.0);
+        }
+        return ranges.toString();
+    }
+}
@@ -1,10 +1,29 @@
 package server;
 
-import java.sql.SQLOutput;
+import server.computation.ShardCoordinator;
+import server.logging.AsyncLogHandler;
+
+import java.net.InetSocketAddress;
+import java.util.List;
 
 public class Main {
+    // Usage: java -jar MalasiDenis.jar <port> [blocking|nio|virtual] [--peers host:port,host:port,...]
+    // With --peers, the server coordinates the peers, which compute the shards of the large grids.
+    // The log records are written by a background thread, unless the server is started with -Dserver.asyncLogging=false
     public static void main(String[] args) {
-        server.Server server = new server.Server(Integer.parseInt(args[0]));
+        if (Boolean.parseBoolean(System.getProperty("server.asyncLogging", "true"))) {
+            AsyncLogHandler.install();
+        }
+        Server.Mode mode = Server.Mode.BLOCKING;
+        List<InetSocketAddress> peers = List.of();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--peers") && i + 1 < args.length) {
+                peers = ShardCoordinator.parsePeers(args[++i]);
+            } else {
+                mode = Server.Mode.valueOf(args[i].toUpperCase());
+            }
+        }
+        server.Server server = new server.Server(Integer.parseInt(args[0]), mode, peers);
         server.start();
     }
 }
@@ -1,9 +1,13 @@
 package server;
+import server.computation.ShardCoordinator;
 import server.handler.*;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.logging.Level;
@@ -11,22 +15,55 @@ import java.util.logging.Logger;
 
 public class Server {
 
+    // The ways the server can handle client connections
+    public enum Mode {
+        // Each connection is served by a WorkerThread of the thread pool, with blocking I/O
+        BLOCKING,
+        // All connections are served by a single selector thread with non-blocking I/O, and complete request lines are processed by the thread pool
+        NIO,
+        // Each connection is served by a WorkerThread running on its own virtual thread, and the computations are run by the thread pool
+        VIRTUAL
+    }
+
     // The port the server will listen on
     private int port;
 
+    // The way client connections are handled
+    private Mode mode;
+
     // The ServerSocket object that will accept client connections
-    private ServerSocket serverSocket;
+    private volatile ServerSocket serverSocket;
+
+    // The selector loop serving the connections in NIO mode
+    private volatile SelectorLoop selectorLoop;
 
     // The thread pool that will manage WorkerThreads
     private ExecutorService threadPool;
 
+    // True once the server has been asked to stop
+    private volatile boolean stopped = false;
+
     // The number of processors available on the system
     private int numberOfProcessors;
 
+    // The coordinator sharding the large grids across the peer servers, or null if this server computes everything itself
+    private final ShardCoordinator coordinator;
+
     private static final Logger LOGGER = Logger.getLogger(Server.class.getName());
 
     public Server(int port) {
+        this(port, Mode.BLOCKING);
+    }
+
+    public Server(int port, Mode mode) {
+        this(port, mode, List.of());
+    }
+
+    // With peers, the server is a coordinator: it splits the computations over large grids into shards computed by its peers
+    public Server(int port, Mode mode, List<InetSocketAddress> peers) {
         this.port = port;
+        this.mode = mode;
+        this.coordinator = peers.isEmpty() ? null : new ShardCoordinator(peers);
         // Get the number of available processors
         this.numberOfProcessors = Runtime.getRuntime().availableProcessors();
         // Initialize the thread pool with a number of threads equal to the number of processors
@@ -34,21 +71,35 @@ public class Server {
     }
 
     public void start() {
+        if (mode == Mode.NIO) {
+            startSelector();
+            return;
+        }
+        // In virtual mode the connections are not bounded by the thread pool, which only runs the computations
+        ExecutorService connectionExecutor = threadPool;
+        ComputeStage computeStage = null;
+        if (mode == Mode.VIRTUAL) {
+            connectionExecutor = newVirtualThreadExecutor();
+            computeStage = new ComputeStage(threadPool);
+        }
         try {
             serverSocket = new ServerSocket(port);
 
             // The server loop, runs indefinitely until the server is stopped
-            while (true) {
+            while (!stopped) {
                 // Accept a new client connection
                 Socket clientSocket = serverSocket.accept();
                 // Create a new WorkerThread to handle the client's requests
-                WorkerThread worker = new WorkerThread(clientSocket);
-                // Pass the WorkerThread to the thread pool for execution
-                threadPool.execute(worker);
+                WorkerThread worker = new WorkerThread(clientSocket, computeStage, coordinator);
+                // Pass the WorkerThread to the executor of the connections
+                connectionExecutor.execute(worker);
             }
 
         } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, "Error in server: ", e);
+            // Closing the server socket to stop the server interrupts accept()
+            if (!stopped) {
+                LOGGER.log(Level.SEVERE, "Error in server: ", e);
+            }
         } finally {
             // Always attempt to close the ServerSocket when finished
             try {
@@ -60,5 +111,48 @@ public class Server {
             }
         }
     }
-}
 
+    // This method creates an executor starting a virtual thread per task.
+    // It is looked up reflectively so that the server still builds and runs on JDKs without virtual threads (before Java 21).
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads are not available on this JVM (Java 21 or higher is required)", e);
+        }
+    }
+
+    // This method serves the client connections with non-blocking I/O, running the selector loop on the current thread
+    private void startSelector() {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            // The selector loop runs until the server channel is closed, passing complete request lines to the thread pool
+            selectorLoop = new SelectorLoop(serverChannel, threadPool, coordinator);
+            if (!stopped) {
+                selectorLoop.run();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error in server: ", e);
+        }
+    }
+
+    // This method stops accepting connections and shuts down the thread pool, so that a server started in the same JVM as other code
+    // (such as the benchmarks) does not keep it alive
+    public void stop() {
+        stopped = true;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not close server socket: " + e.getMessage());
+        }
+        if (selectorLoop != null) {
+            selectorLoop.stop();
+        }
+        threadPool.shutdownNow();
+        if (coordinator != null) {
+            coordinator.close();
+        }
+    }
+}
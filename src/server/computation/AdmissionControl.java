@@ -0,0 +1,190 @@
+package server.computation;
+
+import server.exception.RequestTooExpensiveException;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// The AdmissionControl class decides which computations run, from their cost estimated up front: the number of points
+// times the number of instructions of the compiled expressions.
+// Requests costing more than the budget are rejected. The others are split in two lanes: cheap requests run at once,
+// while at most a few expensive ones run at the same time; the expensive requests waiting for their turn are admitted
+// cheapest first, so a short request is not queued behind a long one.
+// The threads shared by many connections, such as those of the compute pool, do not wait for a turn: they hand the expensive requests
+// to the lane, whose expensiveSlots threads start them cheapest first and wait in their place.
+public class AdmissionControl {
+
+    // The longest time, in milliseconds, a waiting request goes without checking its cancellation token
+    private static final long TOKEN_CHECK_INTERVAL = 50;
+
+    private final long maxCost;
+    private final long expensiveCost;
+    private final int expensiveSlots;
+
+    // The expensive requests running, and those waiting ordered by cost and then by arrival; guarded by this
+    private int running = 0;
+    private final PriorityQueue<Waiter> waiting = new PriorityQueue<>();
+    private long arrivals = 0;
+
+    private final LongAdder rejected = new LongAdder();
+
+    // The threads of the lane of the expensive requests, started when needed, and the order in which its tasks were queued
+    private final ThreadPoolExecutor lane;
+    private final AtomicLong laneArrivals = new AtomicLong();
+
+    // An expensive request waiting to run
+    private static class Waiter implements Comparable<Waiter> {
+        private final long cost;
+        private final long arrival;
+
+        Waiter(long cost, long arrival) {
+            this.cost = cost;
+            this.arrival = arrival;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            int byCost = Long.compare(cost, other.cost);
+            return byCost != 0 ? byCost : Long.compare(arrival, other.arrival);
+        }
+    }
+
+    // Requests costing more than maxCost are rejected, and at most expensiveSlots requests costing expensiveCost or more run at once
+    public AdmissionControl(long maxCost, long expensiveCost, int expensiveSlots) {
+        this.maxCost = maxCost;
+        this.expensiveCost = expensiveCost;
+        this.expensiveSlots = Math.max(1, expensiveSlots);
+        this.lane = new ThreadPoolExecutor(this.expensiveSlots, this.expensiveSlots, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "expensive-lane");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    // A task of the lane, ordered by the cost of its request and then by arrival
+    private static class LaneTask<T> extends FutureTask<T> implements Comparable<LaneTask<?>> {
+        private final long cost;
+        private final long arrival;
+
+        LaneTask(Callable<T> task, long cost, long arrival) {
+            super(task);
+            this.cost = cost;
+            this.arrival = arrival;
+        }
+
+        @Override
+        public int compareTo(LaneTask<?> other) {
+            int byCost = Long.compare(cost, other.cost);
+            return byCost != 0 ? byCost : Long.compare(arrival, other.arrival);
+        }
+    }
+
+    // Returns the cost of evaluating a program over the given number of points, saturated to Long.MAX_VALUE
+    public static long costOf(long points, int instructionCount) {
+        if (instructionCount > 0 && points > Long.MAX_VALUE / instructionCount) {
+            return Long.MAX_VALUE;
+        }
+        return points * instructionCount;
+    }
+
+    // This method throws a RequestTooExpensiveException if the cost is over the budget
+    public void check(long cost) throws RequestTooExpensiveException {
+        check(cost, 1);
+    }
+
+    // This method throws a RequestTooExpensiveException if the cost is over the budget of the given number of servers together,
+    // for a computation split across them
+    public void check(long cost, int servers) throws RequestTooExpensiveException {
+        long budget = maxCost > Long.MAX_VALUE / servers ? Long.MAX_VALUE : maxCost * servers;
+        if (cost > budget) {
+            rejected.increment();
+            throw new RequestTooExpensiveException("ERR; (RequestTooExpensiveException) Request cost " + cost
+                    + " exceeds the budget of " + budget);
+        }
+    }
+
+    public boolean isExpensive(long cost) {
+        return cost >= expensiveCost;
+    }
+
+    // This method waits until a request of the given cost can run. Cheap requests run at once; expensive ones must call release when done.
+    public void acquire(long cost) throws InterruptedException {
+        acquire(cost, null);
+    }
+
+    // This method waits until a request of the given cost can run, or until the token, if it is not null, tells to stop.
+    // It returns false, without admitting the request, in the latter case.
+    public boolean acquire(long cost, CancellationToken token) throws InterruptedException {
+        if (!isExpensive(cost)) {
+            return true;
+        }
+        synchronized (this) {
+            Waiter waiter = new Waiter(cost, arrivals++);
+            waiting.add(waiter);
+            try {
+                while (running >= expensiveSlots || waiting.peek() != waiter) {
+                    if (token == null) {
+                        wait();
+                    } else if (token.shouldStop()) {
+                        waiting.remove(waiter);
+                        notifyAll();
+                        return false;
+                    } else {
+                        // Nothing wakes the waiters when a token is cancelled, so they check it regularly
+                        wait(TOKEN_CHECK_INTERVAL);
+                    }
+                }
+            } catch (InterruptedException e) {
+                waiting.remove(waiter);
+                notifyAll();
+                throw e;
+            }
+            waiting.poll();
+            running++;
+            return true;
+        }
+    }
+
+    // This method starts a task computing an expensive request of the given cost in the lane, instead of on the calling thread
+    public <T> Future<T> submitExpensive(long cost, Callable<T> task) {
+        LaneTask<T> laneTask = new LaneTask<>(task, cost, laneArrivals.getAndIncrement());
+        lane.execute(laneTask);
+        return laneTask;
+    }
+
+    // This method runs a task processing an expensive request of the given cost in the lane; it must handle its own failures
+    public void executeExpensive(long cost, Runnable task) {
+        submitExpensive(cost, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    // This method ends a request admitted by acquire
+    public void release(long cost) {
+        if (!isExpensive(cost)) {
+            return;
+        }
+        synchronized (this) {
+            running--;
+            notifyAll();
+        }
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    // Returns the number of expensive requests waiting for their turn
+    public synchronized int getWaiting() {
+        return waiting.size();
+    }
+}
@@ -0,0 +1,168 @@
+package server.computation;
+
+// The Aggregate class accumulates the results of the evaluated points of a computation: MIN and MAX ordered as Double.compare does,
+// the sum of the first expression for AVG and the number of points. Only these running values are kept, whatever the number of points.
+// It also keeps the first error raised, with the index of the point that raised it, so that partial aggregates
+// computed over consecutive slices of points can be merged into the same result as a serial evaluation.
+public class Aggregate {
+
+    private double min = Double.NaN;
+    private double max = Double.NEGATIVE_INFINITY;
+    private double sum = 0.0;
+    // The rounding error lost by sum, accumulated with Neumaier's compensated summation so that AVG stays accurate over many points
+    private double compensation = 0.0;
+    private long count = 0;
+    private String error;
+    private long errorIndex = -1;
+
+    // This method adds the results of the expressions evaluated at a point
+    public void accept(double[] results) {
+        for (double result : results) {
+            if (Double.compare(result, min) < 0) {
+                min = result;
+            }
+            if (Double.compare(result, max) > 0) {
+                max = result;
+            }
+        }
+        // The sum used by AVG only considers the first expression
+        add(results[0]);
+        count++;
+    }
+
+    // This method adds the results of the first length points of a block, where results[e][k] is the value of expression e at the k-th point
+    public void acceptBlock(double[][] results, int length) {
+        for (double[] column : results) {
+            for (int k = 0; k < length; k++) {
+                double result = column[k];
+                if (Double.compare(result, min) < 0) {
+                    min = result;
+                }
+                if (Double.compare(result, max) > 0) {
+                    max = result;
+                }
+            }
+        }
+        // The points are summed in order, so the sum is the same as when they are accepted one at a time
+        double[] first = results[0];
+        for (int k = 0; k < length; k++) {
+            add(first[k]);
+        }
+        count += length;
+    }
+
+    // This method adds a value to the compensated sum
+    private void add(double value) {
+        double total = sum + value;
+        if (Math.abs(sum) >= Math.abs(value)) {
+            compensation += (sum - total) + value;
+        } else {
+            compensation += (value - total) + sum;
+        }
+        sum = total;
+    }
+
+    // This method records the error raised while evaluating the point at the given index
+    public void fail(long index, String message) {
+        this.errorIndex = index;
+        this.error = message;
+    }
+
+    public boolean hasError() {
+        return error != null;
+    }
+
+    public long getErrorIndex() {
+        return errorIndex;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    String getError() {
+        return error;
+    }
+
+    // Returns the smallest result accepted so far, NaN if there is none
+    double getMin() {
+        return min;
+    }
+
+    // Returns the largest result accepted so far, negative infinity if there is none
+    double getMax() {
+        return max;
+    }
+
+    // This method merges the aggregate of the slice of points that follows the one of this aggregate.
+    // The first error in point order wins, as in a serial evaluation.
+    public Aggregate merge(Aggregate next) {
+        if (hasError()) {
+            return this;
+        }
+        if (next.hasError()) {
+            return next;
+        }
+        if (Double.compare(next.min, min) < 0) {
+            min = next.min;
+        }
+        if (Double.compare(next.max, max) > 0) {
+            max = next.max;
+        }
+        add(next.sum);
+        compensation += next.compensation;
+        count += next.count;
+        return this;
+    }
+
+    // This method returns the running values of the aggregate as the response of a shard: count;sum;compensation;min;max.
+    // Doubles are written as String.valueOf does, which Double.parseDouble reads back exactly.
+    String toShard() {
+        return count + ";" + sum + ";" + compensation + ";" + min + ";" + max;
+    }
+
+    // This method reads back the aggregate written by toShard.
+    // It throws a NumberFormatException if the text is not a valid aggregate.
+    static Aggregate fromShard(String text) {
+        String[] parts = text.split(";");
+        if (parts.length != 5) {
+            throw new NumberFormatException("Invalid aggregate: " + text);
+        }
+        Aggregate aggregate = new Aggregate();
+        aggregate.count = Long.parseLong(parts[0]);
+        aggregate.sum = Double.parseDouble(parts[1]);
+        aggregate.compensation = Double.parseDouble(parts[2]);
+        aggregate.min = Double.parseDouble(parts[3]);
+        aggregate.max = Double.parseDouble(parts[4]);
+        return aggregate;
+    }
+
+    // This method returns the response of the computation, or the error message if an error was raised
+    public String result(String computationType) {
+        return toResult(computationType).toString();
+    }
+
+    // This method returns the result of the computation, or the error if one was raised
+    public ComputationResult toResult(String computationType) {
+        if (hasError()) {
+            return ComputationResult.error(error);
+        }
+        // MIN and MAX are undefined when there are no points to evaluate
+        if (count == 0 && !computationType.equals("AVG")) {
+            return ComputationResult.error("ERR; (ComputationException) No values to compute");
+        }
+        // Depending on the computation type, it performs different operations on the results.
+        switch (computationType) {
+            case "MIN":
+                return ComputationResult.value(min);
+            case "MAX":
+                return ComputationResult.value(max);
+            case "AVG":
+                // Once the sum overflows or meets a NaN the compensation is meaningless, and the plain sum is the result
+                double total = Double.isFinite(sum) ? sum + compensation : sum;
+                return ComputationResult.value(total / count);
+            default:
+                throw new IllegalArgumentException("ERR; (IllegalArgumentException) Invalid computation type: " + computationType);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package server.computation;
+
+import java.util.concurrent.TimeUnit;
+
+// The CancellationToken class tells a running computation to stop: when it is cancelled, when its deadline passes,
+// or when the token of its connection is cancelled. The evaluation checks it once per block of points, so checking must stay cheap:
+// it only reads a volatile flag and the clock. The front ends cancel the token of a connection from their own threads,
+// for example once a ConnectionWatcher finds the client gone.
+public class CancellationToken {
+
+    // The token of the connection, or null
+    private final CancellationToken parent;
+    // The deadline, as a System.nanoTime value, and its length in milliseconds; 0 if there is none
+    private final long deadline;
+    private final long timeout;
+
+    private volatile boolean cancelled = false;
+
+    // Creates the token of a connection, cancelled by calling cancel
+    public CancellationToken() {
+        this(null, 0);
+    }
+
+    // Creates the token of a request of the given connection (which may be null), expiring after timeout milliseconds unless it is 0
+    public CancellationToken(CancellationToken parent, long timeout) {
+        this.parent = parent;
+        this.timeout = Math.max(0, timeout);
+        this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.timeout);
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    // Returns true if the computation must stop because it was cancelled, its connection was cancelled or the client is gone
+    public boolean isCancelled() {
+        if (cancelled) {
+            return true;
+        }
+        return parent != null && parent.isCancelled();
+    }
+
+    // Returns true if the deadline has passed
+    public boolean isExpired() {
+        return timeout > 0 && System.nanoTime() - deadline >= 0;
+    }
+
+    // Returns true if the computation must stop for any reason
+    public boolean shouldStop() {
+        return isCancelled() || isExpired();
+    }
+
+    // Returns the error response of a computation stopped by this token
+    public String stopMessage() {
+        if (isCancelled()) {
+            return "ERR; (CancellationException) Computation cancelled";
+        }
+        return "ERR; (TimeoutException) Computation exceeded its timeout of " + timeout + " ms";
+    }
+}
@@ -0,0 +1,13 @@
+package server.computation;
+
+// The CompiledExpression class is the base class of the evaluators generated by ExpressionClassGenerator.
+// A generated evaluator computes the expressions of a bound program over a block of points, in a single loop
+// whose body is the whole program as straight-line arithmetic.
+public abstract class CompiledExpression {
+
+    // This method evaluates the expressions over a block of points given as columns, as ExpressionProgram.evaluateBlock does:
+    // results[expression][k] is the value of an expression at the k-th point.
+    // It stops at the first point where a division by zero would fail and returns its index (length if there is none);
+    // the point itself must be evaluated again by the interpreter to raise the error.
+    public abstract int evaluateBlock(double[][] columns, int length, double[][] results);
+}
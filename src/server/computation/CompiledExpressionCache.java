@@ -0,0 +1,91 @@
+package server.computation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// The CompiledExpressionCache class decides which expressions are worth a generated evaluator and keeps the evaluators generated.
+// Every bound program is counted under its expressions and variable slots; once it has been used by threshold requests,
+// an evaluator is generated for it by ExpressionClassGenerator.
+// The cache is bounded and forgets the least recently used entry: its evaluator, and with it the generated class, can then be unloaded.
+public class CompiledExpressionCache {
+    private static final Logger LOGGER = Logger.getLogger(CompiledExpressionCache.class.getName());
+
+    private final int capacity;
+    private final int threshold;
+    // An access-ordered map, whose eldest entry is the least recently used one
+    private final LinkedHashMap<String, Hotness> entries;
+
+    private final LongAdder generated = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // The Hotness class counts the uses of a bound program and holds its evaluator once generated
+    private static class Hotness {
+        private int uses;
+        private boolean generating;
+        // True once the evaluator could not be generated, so that it is not tried again
+        private boolean failed;
+        private CompiledExpression evaluator;
+    }
+
+    public CompiledExpressionCache(int capacity, int threshold) {
+        this.capacity = capacity;
+        this.threshold = threshold;
+        this.entries = new LinkedHashMap<String, Hotness>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Hotness> eldest) {
+                if (size() > CompiledExpressionCache.this.capacity) {
+                    if (eldest.getValue().evaluator != null) {
+                        evictions.increment();
+                    }
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // This method counts a use of the program bound to the given slots and returns its generated evaluator,
+    // or null if it is not hot yet or cannot be generated.
+    // The evaluator is generated by the request crossing the threshold, outside the lock; requests arriving meanwhile use the interpreter.
+    public CompiledExpression get(String expressions, String slots, ExpressionProgram program) {
+        if (capacity <= 0) {
+            return null;
+        }
+        String key = ExpressionCache.normalise(expressions) + "|" + slots;
+        Hotness entry;
+        synchronized (entries) {
+            entry = entries.computeIfAbsent(key, k -> new Hotness());
+            if (entry.evaluator != null || entry.generating || entry.failed || ++entry.uses < threshold) {
+                return entry.evaluator;
+            }
+            entry.generating = true;
+        }
+        CompiledExpression evaluator = null;
+        try {
+            evaluator = ExpressionClassGenerator.generate(program);
+        } catch (IllegalStateException e) {
+            // The request goes on with the interpreter
+            LOGGER.log(Level.WARNING, "Could not generate the evaluator of " + expressions + ": ", e);
+        }
+        if (evaluator != null) {
+            generated.increment();
+        }
+        synchronized (entries) {
+            entry.evaluator = evaluator;
+            entry.generating = false;
+            entry.failed = evaluator == null;
+        }
+        return evaluator;
+    }
+
+    public long getGenerated() {
+        return generated.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+}
@@ -0,0 +1,177 @@
+package server.computation;
+
+import server.exception.RequestTooExpensiveException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// The ComputationContext class holds everything needed to evaluate a request: the variable ranges, the compiled expressions
+// and the kinds of computation and merge. It is immutable, so it can be shared and evaluated from any number of threads.
+public final class ComputationContext {
+
+    // True to compute MIN and MAX over large grids with the branch and bound of IntervalSearch, which is single-threaded
+    private static final boolean INTERVAL_SEARCH = Boolean.getBoolean("server.intervalSearch");
+
+    private final List<VariableRange> ranges;
+    private final ExpressionProgram program;
+    // The generated evaluator of the program, or null if it is evaluated by the interpreter
+    private final CompiledExpression evaluator;
+    private final String computationType;
+    private final String mergeType;
+
+    // The program must be bound to the names of the ranges, in the same order
+    public ComputationContext(List<VariableRange> ranges, ExpressionProgram program, String computationType, String mergeType) {
+        this(ranges, program, null, computationType, mergeType);
+    }
+
+    // The evaluator, if not null, must have been generated from the program
+    public ComputationContext(List<VariableRange> ranges, ExpressionProgram program, CompiledExpression evaluator,
+                              String computationType, String mergeType) {
+        this.ranges = Collections.unmodifiableList(new ArrayList<>(ranges));
+        this.program = program;
+        this.evaluator = evaluator;
+        this.computationType = computationType;
+        this.mergeType = mergeType;
+    }
+
+    public List<VariableRange> getRanges() {
+        return ranges;
+    }
+
+    public ExpressionProgram getProgram() {
+        return program;
+    }
+
+    public CompiledExpression getEvaluator() {
+        return evaluator;
+    }
+
+    public String getComputationType() {
+        return computationType;
+    }
+
+    public String getMergeType() {
+        return mergeType;
+    }
+
+    // This method creates a new iterator over the merged points of the request.
+    // It throws an IllegalArgumentException if the ranges cannot be merged.
+    public PointIterator points() {
+        return PointIterator.of(ranges, mergeType);
+    }
+
+    // This method computes the response of the request
+    public String compute() {
+        return computeResult(ComputationOptions.NONE).toString();
+    }
+
+    // This method computes the result of the request, without formatting it. It adds the time spent merging and evaluating the points
+    // to the times of the options, and returns the error of their token if it tells to stop before the computation ends.
+    // The coordinator of the options is not used: the request is computed on this server.
+    public ComputationResult computeResult(ComputationOptions options) {
+        StageTimes times = options.getTimes();
+        CancellationToken token = options.getToken();
+        PointIterator points;
+        long startTime = times != null ? System.nanoTime() : 0;
+
+        // Tries to merge variables depending on the merge type.
+        try {
+            // Depending on the merge type, it merges variables either element-wise or in a Cartesian product.
+            // Points are enumerated one at a time, so the merged variables are never materialised.
+            points = points();
+        } catch (IllegalArgumentException e) {
+            // If merging fails due to an illegal argument, it returns the error message.
+            return ComputationResult.error(e.getMessage());
+        } finally {
+            if (times != null) {
+                times.addMergeTime(System.nanoTime() - startTime);
+            }
+        }
+
+        // If the computation type is 'COUNT', it simply returns the number of merged points, computed from the sizes of the ranges.
+        if (computationType.equals("COUNT")) {
+            return ComputationResult.count(points.size());
+        }
+
+        // The cost is estimated before evaluating anything: requests over the budget are rejected,
+        // and expensive ones wait for their turn in their own lane.
+        AdmissionControl admissionControl = DataComputation.getAdmissionControl();
+        long cost = AdmissionControl.costOf(points.size(), program.getInstructionCount());
+        String rejection = admit(cost, token);
+        if (rejection != null) {
+            return ComputationResult.error(rejection);
+        }
+        try {
+            // MIN and MAX over a large grid may be searched by branch and bound, without evaluating every point
+            if (INTERVAL_SEARCH && IntervalSearch.applies(program, points, computationType, mergeType)) {
+                return IntervalSearch.search(program, ranges, computationType, times, token).toResult(computationType);
+            }
+            // Evaluates every expression at each merged point, in parallel for large requests, and aggregates the results.
+            return Evaluation.evaluate(program, evaluator, points, options).toResult(computationType);
+        } finally {
+            admissionControl.release(cost);
+        }
+    }
+
+    // This method estimates the cost of evaluating every point of the request, as AdmissionControl counts it.
+    // It throws an IllegalArgumentException if the ranges cannot be merged.
+    public long cost() {
+        return AdmissionControl.costOf(points().size(), program.getInstructionCount());
+    }
+
+    // This method evaluates the points with index in [from, to) and returns their aggregate, whatever the computation type.
+    // It computes a shard of a computation split by ShardCoordinator; errors are recorded in the aggregate.
+    public Aggregate computeShard(long from, long to, ComputationOptions options) {
+        StageTimes times = options.getTimes();
+        Aggregate failed = new Aggregate();
+        PointIterator points;
+        long startTime = times != null ? System.nanoTime() : 0;
+        try {
+            points = points();
+        } catch (IllegalArgumentException e) {
+            failed.fail(from, e.getMessage());
+            return failed;
+        } finally {
+            if (times != null) {
+                times.addMergeTime(System.nanoTime() - startTime);
+            }
+        }
+        if (from < 0 || from > to || to > points.size()) {
+            failed.fail(from, "ERR; (InvalidRequestException) Invalid shard: " + from + "-" + to + " of " + points.size() + " points");
+            return failed;
+        }
+        points = points.slice(from, to);
+
+        AdmissionControl admissionControl = DataComputation.getAdmissionControl();
+        long cost = AdmissionControl.costOf(points.size(), program.getInstructionCount());
+        String rejection = admit(cost, options.getToken());
+        if (rejection != null) {
+            failed.fail(from, rejection);
+            return failed;
+        }
+        try {
+            return Evaluation.evaluate(program, evaluator, points, options);
+        } finally {
+            admissionControl.release(cost);
+        }
+    }
+
+    // This method admits a computation of the given cost, which must then be released.
+    // It returns the error message if the computation is rejected, or stopped by the token while it waits.
+    private static String admit(long cost, CancellationToken token) {
+        AdmissionControl admissionControl = DataComputation.getAdmissionControl();
+        try {
+            admissionControl.check(cost);
+            if (!admissionControl.acquire(cost, token)) {
+                return token.stopMessage();
+            }
+            return null;
+        } catch (RequestTooExpensiveException e) {
+            return e.getMessage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "ERR; (InterruptedException) Computation interrupted";
+        }
+    }
+}
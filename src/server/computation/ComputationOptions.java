@@ -0,0 +1,31 @@
+package server.computation;
+
+// The ComputationOptions class holds how a computation runs, besides what it computes: where the time spent in each stage is added,
+// the token telling it to stop, and the coordinator sharding it across peers. Each of them may be null, for none.
+public final class ComputationOptions {
+
+    // The options of a computation that is not timed, cannot be stopped and runs on this server only
+    public static final ComputationOptions NONE = new ComputationOptions(null, null, null);
+
+    private final StageTimes times;
+    private final CancellationToken token;
+    private final ShardCoordinator coordinator;
+
+    public ComputationOptions(StageTimes times, CancellationToken token, ShardCoordinator coordinator) {
+        this.times = times;
+        this.token = token;
+        this.coordinator = coordinator;
+    }
+
+    public StageTimes getTimes() {
+        return times;
+    }
+
+    public CancellationToken getToken() {
+        return token;
+    }
+
+    public ShardCoordinator getCoordinator() {
+        return coordinator;
+    }
+}
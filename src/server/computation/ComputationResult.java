@@ -0,0 +1,74 @@
+package server.computation;
+
+// The ComputationResult class holds the outcome of a computation: the value of MIN, MAX or AVG, the number of points of COUNT,
+// a text sent as it is, such as the partial aggregate of a shard, or the error message.
+// The text protocol sends it as toString(), the binary protocol sends the value itself.
+public final class ComputationResult {
+
+    private final double value;
+    private final long count;
+    private final boolean isCount;
+    private final String text;
+    private final String error;
+
+    private ComputationResult(double value, long count, boolean isCount, String text, String error) {
+        this.value = value;
+        this.count = count;
+        this.isCount = isCount;
+        this.text = text;
+        this.error = error;
+    }
+
+    public static ComputationResult value(double value) {
+        return new ComputationResult(value, 0, false, null, null);
+    }
+
+    public static ComputationResult count(long count) {
+        return new ComputationResult(0, count, true, null, null);
+    }
+
+    public static ComputationResult text(String text) {
+        return new ComputationResult(0, 0, false, text, null);
+    }
+
+    // The message must be the error response sent to the client, starting with "ERR;"
+    public static ComputationResult error(String message) {
+        return new ComputationResult(0, 0, false, null, message);
+    }
+
+    public boolean isError() {
+        return error != null;
+    }
+
+    public boolean isCount() {
+        return isCount;
+    }
+
+    public boolean isText() {
+        return text != null;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    // Returns the result as the text protocol sends it
+    @Override
+    public String toString() {
+        if (error != null) {
+            return error;
+        }
+        if (text != null) {
+            return text;
+        }
+        return isCount ? String.valueOf(count) : String.valueOf(value);
+    }
+}
@@ -1,7 +1,6 @@
 package server.computation;
 
 import java.util.Collections;
-import java.util.Objects;
 
 public class Constant extends Node {
 
@@ -17,17 +16,13 @@ public class Constant extends Node {
     }
 
     @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        if (!super.equals(o)) return false;
-        Constant constant = (Constant) o;
-        return Double.compare(constant.value, value) == 0;
+    protected boolean sameValue(Node other) {
+        return Double.compare(((Constant) other).value, value) == 0;
     }
 
     @Override
-    public int hashCode() {
-        return Objects.hash(super.hashCode(), value);
+    protected int valueHash() {
+        return Double.hashCode(value);
     }
 
     @Override
@@ -6,19 +6,45 @@ import java.util.*;
 
 // The DataComputation class, which is responsible for managing variable ranges, parsing and evaluating expressions,
 // and performing computations based on those expressions.
+// Each request uses its own DataComputation; the evaluation itself works on an immutable ComputationContext.
 public class DataComputation {
 
-    // A map to hold variable names and their corresponding ranges
-    private static HashMap<String, List<Double>> variableRanges;
-    // A list to hold nodes resulting from parsed expressions
-    private static List<Node> nodes;
-    // A Parser object used for parsing expressions
-    private Parser parser;
+    // The compiled expressions shared by all the requests, keyed by their normalised text
+    private static final ExpressionCache expressionCache = new ExpressionCache(Integer.getInteger("server.expressionCacheSize", 256));
 
-    public DataComputation() {
-        variableRanges = new HashMap<>();
-        nodes = new ArrayList<>();
-        parser = new Parser("");
+    // The evaluators generated for the expressions used by many requests
+    private static final CompiledExpressionCache compiledExpressionCache = new CompiledExpressionCache(
+            Integer.getInteger("server.compiledExpressionCacheSize", 128), Integer.getInteger("server.compileThreshold", 100));
+
+    // The admission of the computations, from their estimated cost: rejected over the budget, and expensive ones run a few at a time
+    private static final AdmissionControl admissionControl = new AdmissionControl(
+            Long.getLong("server.maxRequestCost", 10_000_000_000L), Long.getLong("server.expensiveRequestCost", 10_000_000L),
+            Integer.getInteger("server.expensiveRequests", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+
+    // The results of the computations repeated by many requests, keyed by their canonical request
+    private static final ResultCache resultCache = new ResultCache(
+            Long.getLong("server.resultCacheBytes", 8L << 20), Long.getLong("server.resultCacheTtl", 60_000L));
+
+    // A map to hold variable names and their corresponding ranges.
+    // It is sorted by name, so that the same ranges give the same points in the same order whatever the order of the request.
+    private final TreeMap<String, VariableRange> variableRanges = new TreeMap<>();
+    // The canonical definitions of the ranges, name:start:increment:end, sorted by name too
+    private final TreeMap<String, String> rangeDefinitions = new TreeMap<>();
+
+    public static ExpressionCache getExpressionCache() {
+        return expressionCache;
+    }
+
+    public static CompiledExpressionCache getCompiledExpressionCache() {
+        return compiledExpressionCache;
+    }
+
+    public static AdmissionControl getAdmissionControl() {
+        return admissionControl;
+    }
+
+    public static ResultCache getResultCache() {
+        return resultCache;
     }
 
     // This method handles adding a variable range to the variableRanges map
@@ -34,6 +60,15 @@ public class DataComputation {
         // The first part of the split string is considered as the variable name.
         String variableName = variableRangeParts[0];
 
+        // Parse the remaining parts of the string as the start, increment, and end values of the range.
+        double start = Double.parseDouble(variableRangeParts[1]);
+        double increment = Double.parseDouble(variableRangeParts[2]);
+        double end = Double.parseDouble(variableRangeParts[3]);
+        addVariableRange(variableName, start, increment, end);
+    }
+
+    // This method adds the range of a variable whose bounds are already parsed, as the binary protocol sends them
+    public void addVariableRange(String variableName, double start, double increment, double end) throws InvalidVariableRangeException {
         // A regex pattern to validate the variable name. The variable name should start with a lowercase letter and can contain lowercase letters or numbers.
         String regex = "^[a-z][a-z0-9]*$";
         // If the variable name does not match the regex pattern, throw an IllegalArgumentException.
@@ -41,48 +76,15 @@ public class DataComputation {
             throw new IllegalArgumentException("ERR; (IllegalArgumentException) Invalid variable name: " + variableName);
         }
 
-        // Parse the remaining parts of the string as the start, increment, and end values of the range.
-        double start = Double.parseDouble(variableRangeParts[1]);
-        double increment = Double.parseDouble(variableRangeParts[2]);
-        double end = Double.parseDouble(variableRangeParts[3]);
-
-        // Create a format string for the increment using the number of significant digits after the decimal point.
-        String format = "%." + getSignificantDigits(increment) + "f";
-        List<Double> ranges = new ArrayList<>();
-
-        // Create a loop to generate the range values from start to end, incrementing by the increment value.
-        for (double i = start; i <= end; i += increment) {
-            // Format the value to the desired number of significant digits and replace any comma with a dot.
-            String formattedValue = String.format(format, i);
-            formattedValue = formattedValue.replace(",", ".");
-
-            // Parse the formatted string as a double value. If the value is negative zero, set it to positive zero.
-            double truncated = Double.parseDouble(formattedValue);
-            if (truncated == -0.0) {
-                truncated = 0.0;
-            }
-
-            // Adjust the loop counter to match the truncated value and add it to the ranges list.
-            i=truncated;
-            ranges.add(truncated);
-        }
-        // Put the variable name and corresponding ranges into the variableRanges map.
-        variableRanges.put(variableName, ranges);
+        // Put the variable name and corresponding range into the variableRanges map.
+        // The values of the range are computed when they are needed, not stored.
+        variableRanges.put(variableName, VariableRange.of(variableName, start, increment, end));
+        rangeDefinitions.put(variableName, variableName + ":" + start + ":" + increment + ":" + end);
     }
 
     // This method is responsible for finding the number of significant digits after the decimal point in a given number.
     public static int getSignificantDigits (double number){
-        String numberString = Double.toString(number);
-
-        // Find the index of the decimal point.
-        int indexPoint = numberString.indexOf(".");
-        int digitsAfterComma = 0;
-
-        // If there is a decimal point, calculate the number of digits after it.
-        if (indexPoint >= 0) {
-            digitsAfterComma = numberString.length() - indexPoint - 1;
-        }
-        return digitsAfterComma;
+        return VariableRange.getSignificantDigits(number);
     }
 
     // This method parses multiple mathematical expressions separated by ';' and returns a list of Node representations of the expressions.
@@ -91,183 +93,126 @@ public class DataComputation {
         // Splits the input string into individual expressions.
         String[] exprs = expressions.split(";");
         for (String expr : exprs) {
-            parser = new Parser(expr);
+            Parser parser = new Parser(expr);
             nodes.add(parser.parse());
         }
         // Returns the list of parsed Node objects.
         return nodes;
     }
 
-    // This method evaluates a given Node and returns its numerical value. It distinguishes between different types of nodes: Operator, Constant, and Variable.
-    public double evaluateNode(Node node, Map<String, Double> values) throws ComputationException {
-        if (node instanceof Operator) {
-            Operator operator = (Operator) node;
-            List<Double> evaluatedChildren = new ArrayList<>();
-            for (Node child : operator.getChildren()) {
-                evaluatedChildren.add(evaluateNode(child, values));
-            }
-            double[] args = evaluatedChildren.stream().mapToDouble(Double::doubleValue).toArray();
-
-            // If the operator is a division and the second operand is zero, throws an exception
-            if (operator.getType() == Operator.Type.DIVISION && args[1] == 0) {
-                if (args[0] == 0) {
-                    // If both operands are zero, throws a ZeroOverZeroException
-                    throw new ZeroOverZeroException("Undefined result at node '" + node + "'");
-                } else {
-                    // If only the second operand is zero, throws a DivisionByZeroException
-                    throw new DivisionByZeroException("Division by zero at node '" + node + "'");
-                }
-            }
-            return operator.getType().getFunction().apply(args);
-        } else if (node instanceof Constant) {
-            Constant constant = (Constant) node;
-            return constant.getValue();
-        } else if (node instanceof Variable) {
-            Variable variable = (Variable) node;
-            String varName = variable.getName();
-            if (values.containsKey(varName)) {
-                return values.get(varName);
-            } else {
-                throw new ComputationException("ERR; (ComputationException) Unvalued variable: " + varName);
-            }
-        } else {
-            throw new ComputationException("ERR; (ComputationException) Unknown node type: " + node.getClass());
+    // This method parses and compiles the expressions and returns the immutable context of the computation,
+    // holding the variable ranges added so far.
+    public ComputationContext prepare(String expression, String computationType, String mergeType) throws ExpressionParsingException, ComputationException {
+        // Expressions already seen are not parsed, simplified and compiled again
+        ExpressionProgram compiled = expressionCache.get(expression);
+        if (compiled == null) {
+            List<Node> nodes = parseExpressions(expression);
+            nodes.replaceAll(ExpressionOptimizer::optimize);
+            compiled = ExpressionProgram.compile(nodes);
+            expressionCache.put(expression, compiled);
         }
+        List<VariableRange> ranges = new ArrayList<>(variableRanges.values());
+
+        // Binds the variables of the compiled expressions to the positions of the values in the merged points.
+        List<String> slots = new ArrayList<>(variableRanges.keySet());
+        ExpressionProgram program = compiled.bind(slots);
+        // Hot expressions are evaluated by a class generated for them
+        CompiledExpression evaluator = compiledExpressionCache.get(expression, String.join(",", slots), program);
+        return new ComputationContext(ranges, program, evaluator, computationType, mergeType);
     }
 
-    // This method is responsible for computing an expression given the computation type and merge type.
-    public String computeExpression(String expression, String computationType, String mergeType) {
-        // Tries to parse the provided expression into nodes.
-        try {
-            nodes = parseExpressions(expression);
-        } catch (ExpressionParsingException e) {
-            return "ERR; (ExpressionParsingException) " + e.getMessage();
-        }
-        List<List<Double>> mergedVariables;
-
-        // Tries to merge variables depending on the merge type.
-        try {
-            // If there is only one variable, simply stores it in the list of merged variables.
-            if (variableRanges.size() == 1) {
-                List<Double> singleVarList = variableRanges.values().iterator().next();
-                mergedVariables = new ArrayList<>();
-                for (Double value : singleVarList) {
-                    mergedVariables.add(Collections.singletonList(value));
-                }
-            } else {
-                // Depending on the merge type, it merges variables either element-wise or in a Cartesian product.
-                if (mergeType.equals("LIST")) {
-                    mergedVariables = elementWiseMerge();
-                } else {
-                    mergedVariables = cartesianProduct();
-                }
-            }
-        } catch (IllegalArgumentException e) {
-            // If merging fails due to an illegal argument, it returns the error message.
-            return e.getMessage();
-        }
+    // This method returns the number of points merged from the variable ranges added so far.
+    // It throws an IllegalArgumentException if the ranges cannot be merged.
+    public long countPoints(String mergeType) {
+        return PointIterator.of(new ArrayList<>(variableRanges.values()), mergeType).size();
+    }
 
-        // If the computation type is 'COUNT', it simply returns the size of the merged variables.
-        if (computationType.equals("COUNT")) {
-            return String.valueOf(mergedVariables.size());
+    // This method estimates the cost of evaluating the expression over the given number of points, as the admission control counts it.
+    // Each character of the expression gives at most one instruction, so the expression is only compiled for large requests,
+    // and without counting it in the statistics of the cache. It returns 0 if the expression cannot be compiled.
+    public static long estimateCost(String expression, long points) {
+        long bound = AdmissionControl.costOf(points, expression.length());
+        if (!admissionControl.isExpensive(bound)) {
+            return bound;
         }
-
-        List<Double> results = new ArrayList<>();
-        double sum = 0.0;
-        double result=0.0;
-
-        // Iterates over each list of values in the merged variables.
-        for (List<Double> values : mergedVariables) {
-            Map<String, Double> valuesMap = new HashMap<>();
-            int i = 0;
-            for (String varName : variableRanges.keySet()) {
-                valuesMap.put(varName, values.get(i));
-                i++;
-            }
-            boolean isFirstExpression = true;
+        ExpressionProgram compiled = expressionCache.peek(expression);
+        if (compiled == null) {
             try {
-
-                // Evaluates each node and stores the result.
-                for (Node node : nodes) {
-                    try {
-                        result = evaluateNode(node, valuesMap);
-                    } catch (ZeroOverZeroException e) {
-                        throw new ZeroOverZeroException("ERR;"+ " (ZeroOverZeroException) "+ e.getMessage());
-                    } catch (DivisionByZeroException e) {
-                        throw new DivisionByZeroException("ERR;"+ " (DivisionByZeroException) "+  e.getMessage());
-                    }
-                    results.add(result);
-
-                    // If the computation type is 'AVG', it calculates the sum of the results only on the first expression.
-                    if (isFirstExpression && computationType.equals("AVG")) {
-                        sum += result;
-                        isFirstExpression = false;
-                    }
-                }
-            } catch (ComputationException e) {
-                return e.getMessage();
-
+                List<Node> nodes = new DataComputation().parseExpressions(expression);
+                nodes.replaceAll(ExpressionOptimizer::optimize);
+                compiled = ExpressionProgram.compile(nodes);
+            } catch (ExpressionParsingException | ComputationException e) {
+                return 0;
             }
         }
-        // Depending on the computation type, it performs different operations on the results.
-        switch (computationType) {
-            case "MIN":
-                return String.valueOf(Collections.min(results));
-            case "MAX":
-                return String.valueOf(Collections.max(results));
-            case "AVG":
-                return String.valueOf(sum / mergedVariables.size());
-            default:
-                throw new IllegalArgumentException("ERR; (IllegalArgumentException) Invalid computation type: " + computationType);
-        }
+        return AdmissionControl.costOf(points, compiled.getInstructionCount());
     }
 
-
-    // This method computes the Cartesian product of the variable ranges and returns a list of lists representing all possible combinations of variable values.
-    public List<List<Double>> cartesianProduct() {
-        List<List<Double>> variables = new ArrayList<>(variableRanges.values());
-        return cartesianProduct(variables, 0);
+    // This method is responsible for computing an expression given the computation type and merge type.
+    public String computeExpression(String expression, String computationType, String mergeType) {
+        return computeResult(expression, computationType, mergeType, ComputationOptions.NONE).toString();
     }
 
-    // This is a helper method for the above method that performs the actual recursive computation of the Cartesian product.
-    private List<List<Double>> cartesianProduct(List<List<Double>> variables, int index) {
-        List<List<Double>> result = new ArrayList<>();
-        if (index == variables.size()) {
-            result.add(new ArrayList<>());
-        } else {
-            for (Double value : variables.get(index)) {
-                for (List<Double> product : cartesianProduct(variables, index + 1)) {
-                    product.add(0, value);
-                    result.add(product);
+    // This method computes an expression given the computation type and merge type, and returns its result without formatting it.
+    // It adds the time spent in each stage to the times of the options and stops with an error once their token tells to;
+    // large grids are split into shards computed by the peers of their coordinator.
+    public ComputationResult computeResult(String expression, String computationType, String mergeType, ComputationOptions options) {
+        StageTimes times = options.getTimes();
+        ShardCoordinator coordinator = options.getCoordinator();
+        ComputationContext context;
+        long startTime = times != null ? System.nanoTime() : 0;
+        // A request computed recently is answered from the cache, without parsing or evaluating anything
+        String key = null;
+        if (resultCache.isEnabled()) {
+            key = ResultCache.keyOf(computationType, mergeType, rangeDefinitions.values(), expression);
+            ComputationResult result = resultCache.get(key);
+            if (result != null) {
+                if (times != null) {
+                    times.addParseTime(System.nanoTime() - startTime);
                 }
+                return result;
             }
         }
-        return result;
-    }
-
-    // This method performs an element-wise merge of the variable ranges, i.e., it groups together the i-th values of all variables into a list.
-    // It throws an IllegalArgumentException if the variable ranges do not all have the same size.
-    public List<List<Double>> elementWiseMerge() {
-        List<List<Double>> mergedVariables = new ArrayList<>();
-        int size = -1;
-        for (List<Double> variableRange : variableRanges.values()) {
-            if (size == -1) {
-                size = variableRange.size();
-            } else if (variableRange.size() != size) {
-                throw new IllegalArgumentException("ERR; (IllegalArgumentException) All variables must have the same number of values for element-wise merge.");
+        // Tries to parse the provided expression into nodes.
+        try {
+            context = prepare(expression, computationType, mergeType);
+        } catch (ExpressionParsingException e) {
+            return ComputationResult.error("ERR; (ExpressionParsingException) " + e.getMessage());
+        } catch (ComputationException e) {
+            return ComputationResult.error(e.getMessage());
+        } finally {
+            if (times != null) {
+                times.addParseTime(System.nanoTime() - startTime);
             }
         }
+        ComputationResult result = coordinator != null && coordinator.applies(context)
+                ? coordinator.compute(context, String.join(",", rangeDefinitions.values()), expression, options)
+                : context.computeResult(options);
+        // Only results are cached: errors may depend on the load of the server, such as timeouts
+        if (key != null && !result.isError()) {
+            resultCache.put(key, result);
+        }
+        return result;
+    }
 
-        for (int index = 0; index < size; index++) {
-            List<Double> currentMerge = new ArrayList<>();
-            for (List<Double> variableRange : variableRanges.values()) {
-                currentMerge.add(variableRange.get(index));
+    // This method computes the shard of a computation with the points of index in [from, to), as sent by a coordinator.
+    // Its result is the partial aggregate of the shard, count;sum;compensation;min;max, which the coordinator merges with the others.
+    public ComputationResult computeShard(String expression, String mergeType, long from, long to, ComputationOptions options) {
+        StageTimes times = options.getTimes();
+        ComputationContext context;
+        long startTime = times != null ? System.nanoTime() : 0;
+        try {
+            context = prepare(expression, "PART", mergeType);
+        } catch (ExpressionParsingException e) {
+            return ComputationResult.error("ERR; (ExpressionParsingException) " + e.getMessage());
+        } catch (ComputationException e) {
+            return ComputationResult.error(e.getMessage());
+        } finally {
+            if (times != null) {
+                times.addParseTime(System.nanoTime() - startTime);
             }
-            mergedVariables.add(currentMerge);
         }
-        return mergedVariables;
+        Aggregate aggregate = context.computeShard(from, to, options);
+        return aggregate.hasError() ? ComputationResult.error(aggregate.getError()) : ComputationResult.text(aggregate.toShard());
     }
-
-
 }
-
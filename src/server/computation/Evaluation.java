@@ -0,0 +1,218 @@
+package server.computation;
+
+import server.exception.*;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The Evaluation class evaluates a compiled program over the merged points of a request and aggregates the results.
+// Small requests are evaluated on the calling thread; large ones are split into slices of consecutive points
+// that are evaluated in parallel on a shared ForkJoinPool, and whose partial aggregates are merged in point order.
+// Within a slice, points are evaluated in blocks: the values of each variable are gathered into a column and every instruction
+// is applied to whole columns, which amortises the interpretation of the program over the points of the block.
+public class Evaluation {
+
+    // Requests with fewer points than this threshold are evaluated on the calling thread
+    private static final long PARALLEL_THRESHOLD = Long.getLong("server.parallelThreshold", 100_000L);
+    // The number of points evaluated by a single task
+    private static final long SLICE_SIZE = 16_384;
+    // The number of points evaluated together; with 1, points are evaluated one at a time.
+    // Slices check whether an earlier point already failed after each block, or every BLOCK_SIZE points.
+    private static final int BLOCK_SIZE = Math.max(1, Integer.getInteger("server.blockSize", 1024));
+
+    // The pool shared by all the requests, with one thread per available processor
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    // This method evaluates the program over all the points of the iterator, with its generated evaluator if it is not null.
+    // It adds the time spent generating and evaluating the points to the times of the options, and stops with the error of their token
+    // once it tells to. The token is checked between blocks of points, or every 1024 points when they are evaluated one at a time.
+    public static Aggregate evaluate(ExpressionProgram program, CompiledExpression evaluator, PointIterator points, ComputationOptions options) {
+        StageTimes times = options.getTimes();
+        CancellationToken token = options.getToken();
+        if (points.size() < PARALLEL_THRESHOLD) {
+            return evaluateSlice(program, evaluator, points, null, times, token);
+        }
+        return POOL.invoke(new SliceTask(program, evaluator, points, 0, points.size(), new AtomicLong(Long.MAX_VALUE), times, token));
+    }
+
+    // This method evaluates the program over the points of a slice and returns their aggregate.
+    // The evaluation stops at the first error; when firstError is shared with other slices, it also stops once an earlier point has failed.
+    private static Aggregate evaluateSlice(ExpressionProgram program, CompiledExpression evaluator, PointIterator points, AtomicLong firstError,
+                                           StageTimes times, CancellationToken token) {
+        if (BLOCK_SIZE == 1) {
+            long startTime = times != null ? System.nanoTime() : 0;
+            Aggregate aggregate = evaluatePoints(program, points, firstError, times, token);
+            if (times != null) {
+                times.addEvaluationTime(System.nanoTime() - startTime);
+            }
+            return aggregate;
+        }
+        Aggregate aggregate = new Aggregate();
+        double[][] columns = new double[points.dimension()][BLOCK_SIZE];
+        double[][] stack = evaluator == null ? program.newBlockStack(BLOCK_SIZE) : null;
+        double[][] results = new double[program.getResultCount()][BLOCK_SIZE];
+        double[] point = new double[points.dimension()];
+        double[] pointStack = program.newStack();
+        double[] pointResults = new double[program.getResultCount()];
+        long index = points.start();
+        // The time spent generating and evaluating the points, only measured once per block
+        long mergeTime = 0;
+        long evaluationTime = 0;
+
+        int length;
+        blocks:
+        while (true) {
+            long startTime = times != null ? System.nanoTime() : 0;
+            length = points.nextBlock(columns, BLOCK_SIZE);
+            long mergedTime = times != null ? System.nanoTime() : 0;
+            mergeTime += mergedTime - startTime;
+            if (length <= 0) {
+                break;
+            }
+            // The computation stops between blocks, so a computation whose points fit in a single block always ends
+            if (token != null && index > points.start() && token.shouldStop()) {
+                aggregate.fail(index, token.stopMessage());
+                break;
+            }
+            // A generated evaluator runs the whole program at each point of the block, the interpreter one instruction at a time over all of them
+            int failure = evaluator != null
+                    ? evaluator.evaluateBlock(columns, length, results)
+                    : program.evaluateBlock(columns, length, stack, results);
+            aggregate.acceptBlock(results, failure);
+            // From the first point that may fail, the rest of the block is evaluated one point at a time to raise the error
+            for (int k = failure; k < length; k++) {
+                for (int i = 0; i < point.length; i++) {
+                    point[i] = columns[i][k];
+                }
+                if (!evaluatePoint(program, point, pointStack, pointResults, index + k, aggregate, firstError)) {
+                    index += k + 1;
+                    evaluationTime += times != null ? System.nanoTime() - mergedTime : 0;
+                    break blocks;
+                }
+            }
+            index += length;
+            evaluationTime += times != null ? System.nanoTime() - mergedTime : 0;
+            if (firstError != null && firstError.get() < index) {
+                break;
+            }
+        }
+        if (times != null) {
+            times.addMergeTime(mergeTime);
+            times.addEvaluationTime(evaluationTime);
+            times.addPoints(index - points.start(), program.getInstructionCount());
+        }
+        return aggregate;
+    }
+
+    // This method evaluates the points of a slice one at a time, adding the number of points evaluated to times, if it is not null
+    private static Aggregate evaluatePoints(ExpressionProgram program, PointIterator points, AtomicLong firstError, StageTimes times,
+                                            CancellationToken token) {
+        Aggregate aggregate = new Aggregate();
+        double[] point = new double[points.dimension()];
+        double[] stack = program.newStack();
+        double[] results = new double[program.getResultCount()];
+        long index = points.start();
+
+        while (points.next(point)) {
+            if (!evaluatePoint(program, point, stack, results, index, aggregate, firstError)) {
+                // The point raising the error was evaluated too
+                index++;
+                break;
+            }
+            index++;
+            if (index % 1024 == 0) {
+                if (firstError != null && firstError.get() < index) {
+                    break;
+                }
+                if (token != null && token.shouldStop()) {
+                    aggregate.fail(index, token.stopMessage());
+                    break;
+                }
+            }
+        }
+        if (times != null) {
+            times.addPoints(index - points.start(), program.getInstructionCount());
+        }
+        return aggregate;
+    }
+
+    // This method evaluates the point with the given index and adds its results to the aggregate.
+    // It returns false if the evaluation failed, after recording the error in the aggregate and in firstError.
+    private static boolean evaluatePoint(ExpressionProgram program, double[] point, double[] stack, double[] results, long index,
+                                         Aggregate aggregate, AtomicLong firstError) {
+        try {
+            program.evaluate(point, stack, results);
+        } catch (ComputationException e) {
+            aggregate.fail(index, errorMessage(e));
+        }
+        if (aggregate.hasError()) {
+            if (firstError != null) {
+                firstError.accumulateAndGet(index, Math::min);
+            }
+            return false;
+        }
+        aggregate.accept(results);
+        return true;
+    }
+
+    // This method returns the error response of an exception raised while evaluating a point
+    static String errorMessage(ComputationException e) {
+        if (e instanceof ZeroOverZeroException) {
+            return "ERR;"+ " (ZeroOverZeroException) "+ e.getMessage();
+        }
+        if (e instanceof DivisionByZeroException) {
+            return "ERR;"+ " (DivisionByZeroException) "+  e.getMessage();
+        }
+        return e.getMessage();
+    }
+
+    // The SliceTask class evaluates the points with index in [from, to), splitting the range in halves until it is small enough
+    private static class SliceTask extends RecursiveTask<Aggregate> {
+        private static final long serialVersionUID = 1L;
+
+        private final ExpressionProgram program;
+        private final CompiledExpression evaluator;
+        private final PointIterator points;
+        private final long from;
+        private final long to;
+        private final AtomicLong firstError;
+        private final StageTimes times;
+        private final CancellationToken token;
+
+        SliceTask(ExpressionProgram program, CompiledExpression evaluator, PointIterator points, long from, long to, AtomicLong firstError,
+                  StageTimes times, CancellationToken token) {
+            this.program = program;
+            this.evaluator = evaluator;
+            this.points = points;
+            this.from = from;
+            this.to = to;
+            this.firstError = firstError;
+            this.times = times;
+            this.token = token;
+        }
+
+        @Override
+        protected Aggregate compute() {
+            // If an earlier point already failed, the points of this slice do not matter
+            if (firstError.get() < points.start() + from) {
+                return new Aggregate();
+            }
+            // Slices not started yet are skipped once the computation must stop
+            if (token != null && token.shouldStop()) {
+                Aggregate aggregate = new Aggregate();
+                aggregate.fail(points.start() + from, token.stopMessage());
+                return aggregate;
+            }
+            if (to - from <= SLICE_SIZE) {
+                return evaluateSlice(program, evaluator, points.slice(from, to), firstError, times, token);
+            }
+            long middle = from + (to - from) / 2;
+            SliceTask left = new SliceTask(program, evaluator, points, from, middle, firstError, times, token);
+            SliceTask right = new SliceTask(program, evaluator, points, middle, to, firstError, times, token);
+            left.fork();
+            Aggregate rightAggregate = right.compute();
+            return left.join().merge(rightAggregate);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package server.computation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// The ExpressionCache class keeps the compiled programs of the most recently used expressions, so that requests sending
+// the same expressions with different ranges do not parse and compile them again.
+// It is bounded and evicts the least recently used entry; hits, misses and evictions are counted to size it.
+public class ExpressionCache {
+
+    private final int capacity;
+    // An access-ordered map, whose eldest entry is the least recently used one
+    private final LinkedHashMap<String, ExpressionProgram> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ExpressionCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<String, ExpressionProgram>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ExpressionProgram> eldest) {
+                if (size() > ExpressionCache.this.capacity) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // This method normalises the expressions as the parser sees them: split on ';' and without spaces
+    public static String normalise(String expressions) {
+        String[] exprs = expressions.split(";");
+        StringBuilder key = new StringBuilder(expressions.length());
+        for (int i = 0; i < exprs.length; i++) {
+            if (i > 0) {
+                key.append(';');
+            }
+            key.append(exprs[i].replace(" ", ""));
+        }
+        return key.toString();
+    }
+
+    // This method returns the program compiled from the given expressions, or null if it is not cached
+    public ExpressionProgram get(String expressions) {
+        ExpressionProgram program;
+        synchronized (entries) {
+            program = entries.get(normalise(expressions));
+        }
+        if (program == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return program;
+    }
+
+    // This method returns the program compiled from the given expressions, or null if it is not cached, without counting a hit or a miss
+    public ExpressionProgram peek(String expressions) {
+        String key = normalise(expressions);
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    // This method caches the program compiled from the given expressions
+    public void put(String expressions, ExpressionProgram program) {
+        String key = normalise(expressions);
+        synchronized (entries) {
+            entries.put(key, program);
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+}
@@ -0,0 +1,419 @@
+package server.computation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The ExpressionClassGenerator class generates a JVM class evaluating a bound program, so that the JIT compiler sees the expressions
+// as a small loop of straight-line arithmetic over the points of a block, instead of the interpreter applying one instruction at a time.
+// The class file is written by hand: the instructions of the program map one to one to JVM instructions on the operand stack.
+// It uses the Java 5 class file version, verified by type inference, so the loop needs no stack map frames.
+// Every class is defined by its own class loader, so it can be unloaded as soon as its evaluator is no longer referenced.
+public class ExpressionClassGenerator {
+
+    private static final String PACKAGE = "server/computation/generated/";
+    private static final String SUPER_CLASS = "server/computation/CompiledExpression";
+    private static final String EVALUATE_DESCRIPTOR = "([[DI[[D)I";
+
+    // The largest code generated: HotSpot does not compile methods larger than 8000 bytes, which would make the evaluator slower than the interpreter
+    private static final int MAX_CODE_LENGTH = 8000;
+
+    // Local variables of the evaluateBlock method: this, the columns, the length, the results and the index of the point,
+    // followed by the columns of the variables and of the results, two double scratch slots and the temporary slots
+    private static final int COLUMNS = 1;
+    private static final int LENGTH = 2;
+    private static final int RESULTS = 3;
+    private static final int INDEX = 4;
+    private static final int FIRST_LOCAL = 5;
+
+    // JVM opcodes
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC2_W = 0x14;
+    private static final int DCONST_0 = 0x0e;
+    private static final int DCONST_1 = 0x0f;
+    private static final int ILOAD = 0x15;
+    private static final int DLOAD = 0x18;
+    private static final int ALOAD = 0x19;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int DALOAD = 0x31;
+    private static final int AALOAD = 0x32;
+    private static final int DSTORE = 0x39;
+    private static final int ASTORE = 0x3a;
+    private static final int ISTORE = 0x36;
+    private static final int DASTORE = 0x52;
+    private static final int DUP2 = 0x5c;
+    private static final int DADD = 0x63;
+    private static final int DSUB = 0x67;
+    private static final int DMUL = 0x6b;
+    private static final int DDIV = 0x6f;
+    private static final int IINC = 0x84;
+    private static final int DCMPL = 0x97;
+    private static final int IFNE = 0x9a;
+    private static final int IF_ICMPGE = 0xa2;
+    private static final int GOTO = 0xa7;
+    private static final int IRETURN = 0xac;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int WIDE = 0xc4;
+
+    private static final AtomicLong classCount = new AtomicLong();
+
+    private ExpressionClassGenerator() {
+    }
+
+    // This method generates the evaluator of the bound program.
+    // It returns null if the program is too large, or has unvalued variables: it then fails at the first point, which the interpreter does as well.
+    public static CompiledExpression generate(ExpressionProgram program) {
+        String name = PACKAGE + "Expression" + classCount.incrementAndGet();
+        byte[] bytes = new ClassWriter(name, program).write();
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            Class<?> generated = new GeneratedClassLoader(CompiledExpression.class.getClassLoader())
+                    .define(name.replace('/', '.'), bytes);
+            return (CompiledExpression) generated.getConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            throw new IllegalStateException("Could not load the generated evaluator " + name, e);
+        }
+    }
+
+    // The GeneratedClassLoader class defines a single generated class
+    private static class GeneratedClassLoader extends ClassLoader {
+        GeneratedClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    // The ClassWriter class writes the class file of the evaluator of a program
+    private static class ClassWriter {
+        private final String name;
+        private final ExpressionProgram program;
+
+        // The constant pool, whose entries are numbered from 1; doubles take two entries
+        private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        private final DataOutputStream poolOut = new DataOutputStream(pool);
+        private final Map<String, Integer> poolIndexes = new HashMap<>();
+        private int poolCount = 1;
+
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        // The positions of the forward branches and of their targets, set once the code is complete
+        private final List<int[]> branches = new ArrayList<>();
+        private int maxLocals = FIRST_LOCAL;
+
+        ClassWriter(String name, ExpressionProgram program) {
+            this.name = name;
+            this.program = program;
+        }
+
+        // Returns the bytes of the class file, or null if the program cannot be generated
+        byte[] write() {
+            try {
+                int thisClass = classEntry(name);
+                int superClass = classEntry(SUPER_CLASS);
+                int constructorName = utf8("<init>");
+                int constructorDescriptor = utf8("()V");
+                int superConstructor = methodEntry(SUPER_CLASS, "<init>", "()V");
+                int evaluateName = utf8("evaluateBlock");
+                int evaluateDescriptor = utf8(EVALUATE_DESCRIPTOR);
+                int codeName = utf8("Code");
+
+                byte[] evaluateCode = evaluateCode();
+                if (evaluateCode == null) {
+                    return null;
+                }
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(0xcafebabe);
+                // Java 5 class file version
+                out.writeShort(0);
+                out.writeShort(49);
+                out.writeShort(poolCount);
+                out.write(pool.toByteArray());
+                // public final super
+                out.writeShort(0x0001 | 0x0010 | 0x0020);
+                out.writeShort(thisClass);
+                out.writeShort(superClass);
+                // No interfaces nor fields
+                out.writeShort(0);
+                out.writeShort(0);
+                out.writeShort(2);
+
+                // public <init>() { super(); }
+                byte[] constructorCode = {(byte) ALOAD_0, (byte) INVOKESPECIAL,
+                        (byte) (superConstructor >> 8), (byte) superConstructor, (byte) RETURN};
+                writeMethod(out, constructorName, constructorDescriptor, codeName, 1, 1, constructorCode);
+
+                // public int evaluateBlock(double[][] columns, int length, double[][] results)
+                int maxStack = 2 * program.getMaxStackDepth() + 4;
+                writeMethod(out, evaluateName, evaluateDescriptor, codeName, maxStack, maxLocals, evaluateCode);
+
+                // No class attributes
+                out.writeShort(0);
+                return bytes.toByteArray();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void writeMethod(DataOutputStream out, int name, int descriptor, int codeName, int maxStack, int maxLocals, byte[] code)
+                throws IOException {
+            out.writeShort(0x0001);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + code.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            // No exception handlers nor code attributes
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+
+        // This method translates the program into a loop over the points of the block, or returns null if it cannot be generated
+        private byte[] evaluateCode() throws IOException {
+            byte[] opcodes = program.getOpcodes();
+            int[] operands = program.getOperands();
+            double[] constants = program.getConstants();
+            int pow = methodEntry("java/lang/Math", "pow", "(DD)D");
+
+            // The columns of the variables and of the results are loaded once, before the loop
+            Map<Integer, Integer> variableLocals = new HashMap<>();
+            for (int pc = 0; pc < opcodes.length; pc++) {
+                if (opcodes[pc] == ExpressionProgram.UNVALUED) {
+                    return null;
+                }
+                if (opcodes[pc] == ExpressionProgram.VARIABLE && !variableLocals.containsKey(operands[pc])) {
+                    variableLocals.put(operands[pc], maxLocals);
+                    loadColumn(COLUMNS, operands[pc], maxLocals++);
+                }
+            }
+            int resultLocals = maxLocals;
+            for (int result = 0; result < program.getResultCount(); result++) {
+                loadColumn(RESULTS, result, maxLocals++);
+            }
+            int scratch = maxLocals;
+            int scratch2 = maxLocals + 2;
+            int temps = maxLocals + 4;
+            maxLocals = temps + 2 * program.getTempCount();
+
+            // for (int k = 0; k < length; k++)
+            code.write(ICONST_0);
+            local(ISTORE, INDEX);
+            int loop = code.size();
+            local(ILOAD, INDEX);
+            local(ILOAD, LENGTH);
+            int exitJump = code.size();
+            code.write(IF_ICMPGE);
+            writeShort(0);
+
+            for (int pc = 0; pc < opcodes.length; pc++) {
+                int operand = operands[pc];
+                switch (opcodes[pc]) {
+                    case ExpressionProgram.CONSTANT:
+                        pushDouble(constants[operand]);
+                        break;
+                    case ExpressionProgram.VARIABLE:
+                        local(ALOAD, variableLocals.get(operand));
+                        local(ILOAD, INDEX);
+                        code.write(DALOAD);
+                        break;
+                    case ExpressionProgram.SUM:
+                        code.write(DADD);
+                        break;
+                    case ExpressionProgram.SUBTRACTION:
+                        code.write(DSUB);
+                        break;
+                    case ExpressionProgram.MULTIPLICATION:
+                        code.write(DMUL);
+                        break;
+                    case ExpressionProgram.DIVISION:
+                        // if (divisor == 0) return k; a NaN divisor compares as not equal
+                        local(DSTORE, scratch);
+                        local(DLOAD, scratch);
+                        code.write(DCONST_0);
+                        code.write(DCMPL);
+                        int skip = code.size();
+                        code.write(IFNE);
+                        writeShort(0);
+                        local(ILOAD, INDEX);
+                        code.write(IRETURN);
+                        patch(skip, code.size());
+                        local(DLOAD, scratch);
+                        code.write(DDIV);
+                        break;
+                    case ExpressionProgram.POWER:
+                        code.write(INVOKESTATIC);
+                        writeShort(pow);
+                        break;
+                    case ExpressionProgram.RESULT:
+                        // results[operand][k] = value
+                        local(DSTORE, scratch2);
+                        local(ALOAD, resultLocals + operand);
+                        local(ILOAD, INDEX);
+                        local(DLOAD, scratch2);
+                        code.write(DASTORE);
+                        break;
+                    case ExpressionProgram.STORE_TEMP:
+                        code.write(DUP2);
+                        local(DSTORE, temps + 2 * operand);
+                        break;
+                    case ExpressionProgram.LOAD_TEMP:
+                        local(DLOAD, temps + 2 * operand);
+                        break;
+                }
+                if (code.size() >= MAX_CODE_LENGTH) {
+                    return null;
+                }
+            }
+
+            iinc(INDEX);
+            int back = code.size();
+            code.write(GOTO);
+            writeShort(loop - back);
+            patch(exitJump, code.size());
+            local(ILOAD, LENGTH);
+            code.write(IRETURN);
+
+            byte[] bytes = code.toByteArray();
+            for (int[] branch : branches) {
+                int offset = branch[1] - branch[0];
+                bytes[branch[0] + 1] = (byte) (offset >> 8);
+                bytes[branch[0] + 2] = (byte) offset;
+            }
+            return bytes;
+        }
+
+        // Stores array[index] into the given local variable
+        private void loadColumn(int array, int index, int local) throws IOException {
+            local(ALOAD, array);
+            pushInt(index);
+            code.write(AALOAD);
+            local(ASTORE, local);
+        }
+
+        // Records that the branch at the given position jumps to the target
+        private void patch(int branch, int target) {
+            branches.add(new int[]{branch, target});
+        }
+
+        private void pushInt(int value) {
+            if (value <= 5) {
+                code.write(ICONST_0 + value);
+            } else if (value <= Byte.MAX_VALUE) {
+                code.write(BIPUSH);
+                code.write(value);
+            } else {
+                // The code limit keeps the indexes of variables and results below Short.MAX_VALUE
+                code.write(SIPUSH);
+                writeShort(value);
+            }
+        }
+
+        private void pushDouble(double value) throws IOException {
+            // Only the bit patterns of 0.0 and 1.0 have their own instructions, -0.0 goes to the constant pool
+            if (Double.doubleToRawLongBits(value) == 0L) {
+                code.write(DCONST_0);
+            } else if (value == 1.0) {
+                code.write(DCONST_1);
+            } else {
+                code.write(LDC2_W);
+                writeShort(doubleEntry(value));
+            }
+        }
+
+        private void local(int opcode, int index) {
+            if (index <= 0xff) {
+                code.write(opcode);
+                code.write(index);
+            } else {
+                code.write(WIDE);
+                code.write(opcode);
+                writeShort(index);
+            }
+        }
+
+        private void iinc(int index) {
+            code.write(IINC);
+            code.write(index);
+            code.write(1);
+        }
+
+        private void writeShort(int value) {
+            code.write(value >> 8);
+            code.write(value);
+        }
+
+        private int utf8(String value) throws IOException {
+            Integer index = poolIndexes.get("U" + value);
+            if (index == null) {
+                index = poolCount++;
+                poolIndexes.put("U" + value, index);
+                poolOut.writeByte(1);
+                poolOut.writeUTF(value);
+            }
+            return index;
+        }
+
+        private int classEntry(String className) throws IOException {
+            Integer index = poolIndexes.get("C" + className);
+            if (index == null) {
+                int nameIndex = utf8(className);
+                index = poolCount++;
+                poolIndexes.put("C" + className, index);
+                poolOut.writeByte(7);
+                poolOut.writeShort(nameIndex);
+            }
+            return index;
+        }
+
+        private int methodEntry(String owner, String methodName, String descriptor) throws IOException {
+            String key = "M" + owner + "." + methodName + descriptor;
+            Integer index = poolIndexes.get(key);
+            if (index == null) {
+                int ownerIndex = classEntry(owner);
+                int nameIndex = utf8(methodName);
+                int descriptorIndex = utf8(descriptor);
+                int nameAndType = poolCount++;
+                poolOut.writeByte(12);
+                poolOut.writeShort(nameIndex);
+                poolOut.writeShort(descriptorIndex);
+                index = poolCount++;
+                poolIndexes.put(key, index);
+                poolOut.writeByte(10);
+                poolOut.writeShort(ownerIndex);
+                poolOut.writeShort(nameAndType);
+            }
+            return index;
+        }
+
+        private int doubleEntry(double value) throws IOException {
+            String key = "D" + Double.doubleToRawLongBits(value);
+            Integer index = poolIndexes.get(key);
+            if (index == null) {
+                index = poolCount;
+                poolCount += 2;
+                poolIndexes.put(key, index);
+                poolOut.writeByte(6);
+                poolOut.writeDouble(value);
+            }
+            return index;
+        }
+    }
+}
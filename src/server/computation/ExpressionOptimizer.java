@@ -0,0 +1,109 @@
+package server.computation;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+// The ExpressionOptimizer class simplifies a parsed expression once per request, so that the work is not repeated at every point.
+// Constant subtrees are folded and identities that hold for every double (including NaN, infinities and negative zero) are applied.
+// Divisions by a constant zero are never folded, so they still raise their exception when evaluated, and rewritten operators keep
+// the original subtree as their text, so error messages name the nodes as the client wrote them.
+public class ExpressionOptimizer {
+
+    private ExpressionOptimizer() {
+    }
+
+    // This method returns the simplified form of the expression.
+    // The nodes are visited in post-order with an explicit stack, so deeply nested expressions do not overflow the thread stack.
+    public static Node optimize(Node root) {
+        Deque<Node> pending = new ArrayDeque<>();
+        Deque<Boolean> childrenOptimized = new ArrayDeque<>();
+        Deque<Node> optimized = new ArrayDeque<>();
+        pending.push(root);
+        childrenOptimized.push(false);
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            boolean ready = childrenOptimized.pop();
+            if (!(node instanceof Operator)) {
+                optimized.push(node);
+            } else if (!ready) {
+                // The operator is visited again once all its children have been optimized
+                pending.push(node);
+                childrenOptimized.push(true);
+                List<Node> children = node.getChildren();
+                for (int i = children.size() - 1; i >= 0; i--) {
+                    pending.push(children.get(i));
+                    childrenOptimized.push(false);
+                }
+            } else {
+                Node[] children = new Node[node.getChildren().size()];
+                for (int i = children.length - 1; i >= 0; i--) {
+                    children[i] = optimized.pop();
+                }
+                optimized.push(simplify((Operator) node, Arrays.asList(children)));
+            }
+        }
+        return optimized.pop();
+    }
+
+    // This method simplifies an operator whose children have already been optimized
+    private static Node simplify(Operator operator, List<Node> children) {
+        Operator.Type type = operator.getType();
+        Node left = children.get(0);
+        Node right = children.get(1);
+
+        // Both operands are constant: the operator is computed now, unless it is a division by zero, which must fail at evaluation
+        if (left instanceof Constant && right instanceof Constant) {
+            double divisor = ((Constant) right).getValue();
+            if (type != Operator.Type.DIVISION || divisor != 0) {
+                return new Constant(type.apply(((Constant) left).getValue(), divisor));
+            }
+        }
+
+        switch (type) {
+            case MULTIPLICATION:
+                // x*1 and 1*x are x
+                if (isConstant(right, 1.0)) {
+                    return left;
+                }
+                if (isConstant(left, 1.0)) {
+                    return right;
+                }
+                break;
+            case DIVISION:
+            case POWER:
+                // x/1 and x^1 are x (Math.pow returns its first argument when the second one is 1)
+                if (isConstant(right, 1.0)) {
+                    return left;
+                }
+                break;
+            case SUBTRACTION:
+                // x-0 is x, but x-(-0) is not: -0-(-0) is +0
+                if (isConstant(right, 0.0)) {
+                    return left;
+                }
+                break;
+            case SUM:
+                // x+(-0) and (-0)+x are x, but x+0 is not: -0+0 is +0
+                if (isConstant(right, -0.0)) {
+                    return left;
+                }
+                if (isConstant(left, -0.0)) {
+                    return right;
+                }
+                break;
+        }
+
+        if (left == operator.getChildren().get(0) && right == operator.getChildren().get(1)) {
+            return operator;
+        }
+        return new Operator(type, children, operator);
+    }
+
+    // Checks if the node is a constant with exactly the given value, telling apart 0 and -0
+    private static boolean isConstant(Node node, double value) {
+        return node instanceof Constant
+                && Double.doubleToRawLongBits(((Constant) node).getValue()) == Double.doubleToRawLongBits(value);
+    }
+}
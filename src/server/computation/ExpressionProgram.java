@@ -0,0 +1,460 @@
+package server.computation;
+
+import server.exception.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// The ExpressionProgram class is the compiled form of the expressions of a request.
+// Every Node tree is flattened into a postfix sequence of instructions that is evaluated over a primitive double stack,
+// so evaluating a point does not allocate or box anything.
+// The expressions of a request are compiled together as a DAG: a subexpression occurring several times, in the same expression or in different ones,
+// is evaluated once per point, stored in a temporary slot and loaded wherever it occurs again.
+public class ExpressionProgram {
+
+    // Instruction opcodes
+    static final byte CONSTANT = 0;
+    static final byte VARIABLE = 1;
+    static final byte UNVALUED = 2;
+    static final byte SUM = 3;
+    static final byte SUBTRACTION = 4;
+    static final byte MULTIPLICATION = 5;
+    static final byte DIVISION = 6;
+    static final byte POWER = 7;
+    static final byte RESULT = 8;
+    static final byte STORE_TEMP = 9;
+    static final byte LOAD_TEMP = 10;
+
+    // The instructions of the program: each opcode has an operand whose meaning depends on the opcode
+    // (constant index, variable index, node index, result index or temporary slot)
+    private final byte[] opcodes;
+    private final int[] operands;
+    private final double[] constants;
+    // The division nodes and the unvalued variables, kept to build the same error messages as the tree evaluation
+    private final Node[] nodes;
+    // The variable names referenced by the VARIABLE instructions
+    private final String[] variables;
+    private final int maxStackDepth;
+    // The number of temporary slots holding the values of shared subexpressions, stored after the stack
+    private final int tempCount;
+    private final int resultCount;
+
+    private ExpressionProgram(byte[] opcodes, int[] operands, double[] constants, Node[] nodes, String[] variables,
+                              int maxStackDepth, int tempCount, int resultCount) {
+        this.opcodes = opcodes;
+        this.operands = operands;
+        this.constants = constants;
+        this.nodes = nodes;
+        this.variables = variables;
+        this.maxStackDepth = maxStackDepth;
+        this.tempCount = tempCount;
+        this.resultCount = resultCount;
+    }
+
+    // This method compiles a list of parsed expressions into a single program producing one result per expression.
+    // Variables are numbered in order of first appearance; the program must be bound to the variable slots of a request before evaluation.
+    public static ExpressionProgram compile(List<Node> expressions) throws ComputationException {
+        Compiler compiler = new Compiler();
+        for (Node expression : expressions) {
+            compiler.share(expression);
+        }
+        for (int i = 0; i < expressions.size(); i++) {
+            compiler.emitNode(expressions.get(i));
+            compiler.emit(RESULT, i);
+            compiler.depth--;
+        }
+        return new ExpressionProgram(
+                Arrays.copyOf(compiler.opcodes, compiler.size),
+                Arrays.copyOf(compiler.operands, compiler.size),
+                compiler.constants.stream().mapToDouble(Double::doubleValue).toArray(),
+                compiler.nodes.toArray(new Node[0]),
+                compiler.variables.toArray(new String[0]),
+                compiler.maxDepth,
+                compiler.tempCount,
+                expressions.size());
+    }
+
+    // This method resolves every variable of the program to its index in the given slots, i.e. the position of its value in the evaluated points.
+    // Variables without a slot become UNVALUED instructions, which fail when they are evaluated, as the tree evaluation did.
+    public ExpressionProgram bind(List<String> slots) {
+        byte[] boundOpcodes = opcodes.clone();
+        int[] boundOperands = operands.clone();
+        List<Node> boundNodes = new ArrayList<>(Arrays.asList(nodes));
+        for (int pc = 0; pc < opcodes.length; pc++) {
+            if (opcodes[pc] == VARIABLE) {
+                int slot = slots.indexOf(variables[operands[pc]]);
+                if (slot >= 0) {
+                    boundOperands[pc] = slot;
+                } else {
+                    boundOpcodes[pc] = UNVALUED;
+                    boundOperands[pc] = boundNodes.size();
+                    boundNodes.add(new Variable(variables[operands[pc]]));
+                }
+            }
+        }
+        return new ExpressionProgram(boundOpcodes, boundOperands, constants, boundNodes.toArray(new Node[0]),
+                slots.toArray(new String[0]), maxStackDepth, tempCount, resultCount);
+    }
+
+    // This method allocates a stack large enough to evaluate the program, followed by its temporary slots; it can be reused for every point
+    public double[] newStack() {
+        return new double[maxStackDepth + tempCount];
+    }
+
+    public int getResultCount() {
+        return resultCount;
+    }
+
+    public int getInstructionCount() {
+        return opcodes.length;
+    }
+
+    // The instructions and constants of the program, read by ExpressionClassGenerator; they must not be modified
+    byte[] getOpcodes() {
+        return opcodes;
+    }
+
+    int[] getOperands() {
+        return operands;
+    }
+
+    double[] getConstants() {
+        return constants;
+    }
+
+    int getMaxStackDepth() {
+        return maxStackDepth;
+    }
+
+    int getTempCount() {
+        return tempCount;
+    }
+
+    // This method allocates the columns needed to evaluate the program over blocks of the given number of points: a column per stack entry,
+    // followed by a column per temporary slot. They can be reused for every block.
+    public double[][] newBlockStack(int blockSize) {
+        return new double[maxStackDepth + tempCount][blockSize];
+    }
+
+    // This method evaluates the program over a block of points given as columns (columns[slot][k] is the value of the slot at the k-th point)
+    // and stores the value of each expression at each point in results[expression][k].
+    // Every instruction is applied to a whole column at once, in simple loops over primitive arrays that the JIT compiler can vectorise.
+    // Instead of throwing, it returns the index of the first point where an instruction would fail (length if there is none):
+    // the results are exact for all the points before it, and the point itself must be evaluated again with evaluate() to raise the error.
+    public int evaluateBlock(double[][] columns, int length, double[][] stack, double[][] results) {
+        int failure = length;
+        int sp = 0;
+        for (int pc = 0; pc < opcodes.length; pc++) {
+            int operand = operands[pc];
+            switch (opcodes[pc]) {
+                case CONSTANT:
+                    Arrays.fill(stack[sp++], 0, length, constants[operand]);
+                    break;
+                case VARIABLE:
+                    System.arraycopy(columns[operand], 0, stack[sp++], 0, length);
+                    break;
+                case SUM: {
+                    sp--;
+                    double[] left = stack[sp - 1];
+                    double[] right = stack[sp];
+                    for (int k = 0; k < length; k++) {
+                        left[k] = left[k] + right[k];
+                    }
+                    break;
+                }
+                case SUBTRACTION: {
+                    sp--;
+                    double[] left = stack[sp - 1];
+                    double[] right = stack[sp];
+                    for (int k = 0; k < length; k++) {
+                        left[k] = left[k] - right[k];
+                    }
+                    break;
+                }
+                case MULTIPLICATION: {
+                    sp--;
+                    double[] left = stack[sp - 1];
+                    double[] right = stack[sp];
+                    for (int k = 0; k < length; k++) {
+                        left[k] = left[k] * right[k];
+                    }
+                    break;
+                }
+                case DIVISION: {
+                    sp--;
+                    double[] left = stack[sp - 1];
+                    double[] right = stack[sp];
+                    // Only the points before the first failure found so far matter
+                    for (int k = 0; k < failure; k++) {
+                        if (right[k] == 0) {
+                            failure = k;
+                            break;
+                        }
+                    }
+                    for (int k = 0; k < length; k++) {
+                        left[k] = left[k] / right[k];
+                    }
+                    break;
+                }
+                case POWER: {
+                    sp--;
+                    double[] left = stack[sp - 1];
+                    double[] right = stack[sp];
+                    for (int k = 0; k < length; k++) {
+                        left[k] = Math.pow(left[k], right[k]);
+                    }
+                    break;
+                }
+                case RESULT:
+                    System.arraycopy(stack[--sp], 0, results[operand], 0, length);
+                    break;
+                case STORE_TEMP:
+                    System.arraycopy(stack[sp - 1], 0, stack[maxStackDepth + operand], 0, length);
+                    break;
+                case LOAD_TEMP:
+                    System.arraycopy(stack[maxStackDepth + operand], 0, stack[sp++], 0, length);
+                    break;
+                case UNVALUED:
+                    // An unvalued variable fails at the first point
+                    failure = 0;
+                    Arrays.fill(stack[sp++], 0, length, Double.NaN);
+                    break;
+            }
+        }
+        return failure;
+    }
+
+    // This method evaluates the program at the given point (one value per slot) and stores the value of each expression in results.
+    // Division checks are performed in the same order and with the same messages as the recursive tree evaluation.
+    public void evaluate(double[] point, double[] stack, double[] results) throws ComputationException {
+        int sp = 0;
+        for (int pc = 0; pc < opcodes.length; pc++) {
+            int operand = operands[pc];
+            switch (opcodes[pc]) {
+                case CONSTANT:
+                    stack[sp++] = constants[operand];
+                    break;
+                case VARIABLE:
+                    stack[sp++] = point[operand];
+                    break;
+                case SUM:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] + stack[sp];
+                    break;
+                case SUBTRACTION:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] - stack[sp];
+                    break;
+                case MULTIPLICATION:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] * stack[sp];
+                    break;
+                case DIVISION:
+                    sp--;
+                    // If the second operand is zero, throws an exception
+                    if (stack[sp] == 0) {
+                        throw divisionException(operand, stack[sp - 1]);
+                    }
+                    stack[sp - 1] = stack[sp - 1] / stack[sp];
+                    break;
+                case POWER:
+                    sp--;
+                    stack[sp - 1] = Math.pow(stack[sp - 1], stack[sp]);
+                    break;
+                case RESULT:
+                    results[operand] = stack[--sp];
+                    break;
+                case STORE_TEMP:
+                    stack[maxStackDepth + operand] = stack[sp - 1];
+                    break;
+                case LOAD_TEMP:
+                    stack[sp++] = stack[maxStackDepth + operand];
+                    break;
+                case UNVALUED:
+                    throw unvaluedException(operand);
+            }
+        }
+    }
+
+    // This method builds the exception raised by a division by zero
+    private ComputationException divisionException(int node, double dividend) {
+        if (dividend == 0) {
+            // If both operands are zero, it is a ZeroOverZeroException
+            return new ZeroOverZeroException("Undefined result at node '" + nodes[node] + "'");
+        }
+        // If only the second operand is zero, it is a DivisionByZeroException
+        return new DivisionByZeroException("Division by zero at node '" + nodes[node] + "'");
+    }
+
+    // This method builds the exception raised by a variable that has no values
+    private ComputationException unvaluedException(int node) {
+        return new ComputationException("ERR; (ComputationException) Unvalued variable: " + nodes[node]);
+    }
+
+    // The Compiler class flattens Node trees into postfix instructions, tracking the stack depth reached
+    private static class Compiler {
+        private byte[] opcodes = new byte[16];
+        private int[] operands = new int[16];
+        private int size = 0;
+        private int depth = 0;
+        private int maxDepth = 0;
+        private final List<Double> constants = new ArrayList<>();
+        private final List<Node> nodes = new ArrayList<>();
+        private final List<String> variables = new ArrayList<>();
+
+        // The hash-consed DAG of the expressions: every node is numbered so that equal subexpressions get the same number
+        private final Map<Node, Integer> numbers = new IdentityHashMap<>();
+        private final Map<List<Object>, Integer> numbersByKey = new HashMap<>();
+        // The number of references to each subexpression in the DAG, from operators and from the expressions themselves
+        private final List<Integer> uses = new ArrayList<>();
+        // The temporary slot holding the value of each shared subexpression already emitted
+        private final Map<Integer, Integer> temps = new HashMap<>();
+        private int tempCount = 0;
+
+        // This method adds an expression to the DAG, numbering its nodes in post-order.
+        // An operator is identified by its type and the numbers of its children, so equal subtrees get the same number wherever they occur.
+        private void share(Node root) {
+            Deque<Node> pending = new ArrayDeque<>();
+            Deque<Boolean> childrenNumbered = new ArrayDeque<>();
+            pending.push(root);
+            childrenNumbered.push(false);
+            while (!pending.isEmpty()) {
+                Node node = pending.pop();
+                boolean ready = childrenNumbered.pop();
+                if (node instanceof Operator && !ready) {
+                    pending.push(node);
+                    childrenNumbered.push(true);
+                    for (Node child : node.getChildren()) {
+                        pending.push(child);
+                        childrenNumbered.push(false);
+                    }
+                    continue;
+                }
+                List<Object> key = new ArrayList<>();
+                if (node instanceof Operator) {
+                    key.add(((Operator) node).getType());
+                    for (Node child : node.getChildren()) {
+                        key.add(numbers.get(child));
+                    }
+                } else if (node instanceof Constant) {
+                    key.add(Double.doubleToRawLongBits(((Constant) node).getValue()));
+                } else {
+                    key.add(node.toString());
+                }
+                Integer number = numbersByKey.get(key);
+                if (number == null) {
+                    number = uses.size();
+                    numbersByKey.put(key, number);
+                    uses.add(0);
+                    // The children are referenced by the new node of the DAG, and only by the first one with this key
+                    for (Node child : node.getChildren()) {
+                        int childNumber = numbers.get(child);
+                        uses.set(childNumber, uses.get(childNumber) + 1);
+                    }
+                }
+                numbers.put(node, number);
+            }
+            int rootNumber = numbers.get(root);
+            uses.set(rootNumber, uses.get(rootNumber) + 1);
+        }
+
+        // The nodes are visited in post-order with an explicit stack, so deeply nested expressions do not overflow the thread stack.
+        // A shared subexpression is emitted where it first occurs and stored; where it occurs again, its value is loaded instead.
+        private void emitNode(Node root) throws ComputationException {
+            Deque<Node> pending = new ArrayDeque<>();
+            Deque<Boolean> childrenEmitted = new ArrayDeque<>();
+            pending.push(root);
+            childrenEmitted.push(false);
+            while (!pending.isEmpty()) {
+                Node node = pending.pop();
+                boolean ready = childrenEmitted.pop();
+                int number = numbers.get(node);
+                Integer temp = temps.get(number);
+                if (temp != null) {
+                    emit(LOAD_TEMP, temp);
+                    push();
+                } else if (node instanceof Operator && !ready) {
+                    // The operator is emitted again once all its children have been emitted
+                    pending.push(node);
+                    childrenEmitted.push(true);
+                    List<Node> children = node.getChildren();
+                    for (int i = children.size() - 1; i >= 0; i--) {
+                        pending.push(children.get(i));
+                        childrenEmitted.push(false);
+                    }
+                } else {
+                    emitInstruction(node);
+                    // Constants and variables are as cheap to push again as to load
+                    if (node instanceof Operator && uses.get(number) > 1) {
+                        temps.put(number, tempCount);
+                        emit(STORE_TEMP, tempCount++);
+                    }
+                }
+            }
+        }
+
+        private void emitInstruction(Node node) throws ComputationException {
+            if (node instanceof Operator) {
+                Operator operator = (Operator) node;
+                if (operator.getType() == Operator.Type.DIVISION) {
+                    emit(DIVISION, nodes.size());
+                    nodes.add(node);
+                } else {
+                    emit(opcodeOf(operator.getType()), 0);
+                }
+                depth -= operator.getChildren().size() - 1;
+            } else if (node instanceof Constant) {
+                emit(CONSTANT, constants.size());
+                constants.add(((Constant) node).getValue());
+                push();
+            } else if (node instanceof Variable) {
+                String name = ((Variable) node).getName();
+                int index = variables.indexOf(name);
+                if (index < 0) {
+                    index = variables.size();
+                    variables.add(name);
+                }
+                emit(VARIABLE, index);
+                push();
+            } else {
+                throw new ComputationException("ERR; (ComputationException) Unknown node type: " + node.getClass());
+            }
+        }
+
+        private static byte opcodeOf(Operator.Type type) {
+            switch (type) {
+                case SUM:
+                    return SUM;
+                case SUBTRACTION:
+                    return SUBTRACTION;
+                case MULTIPLICATION:
+                    return MULTIPLICATION;
+                case DIVISION:
+                    return DIVISION;
+                default:
+                    return POWER;
+            }
+        }
+
+        private void emit(byte opcode, int operand) {
+            if (size == opcodes.length) {
+                opcodes = Arrays.copyOf(opcodes, size * 2);
+                operands = Arrays.copyOf(operands, size * 2);
+            }
+            opcodes[size] = opcode;
+            operands[size] = operand;
+            size++;
+        }
+
+        private void push() {
+            depth++;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+    }
+}
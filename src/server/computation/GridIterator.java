@@ -0,0 +1,120 @@
+package server.computation;
+
+import java.util.Arrays;
+
+// The GridIterator class enumerates the cartesian product of the variable ranges like an odometer:
+// the last variable changes fastest and carries into the previous ones, as in the nested loops of a cartesian product.
+public class GridIterator extends PointIterator {
+
+    private final long from;
+    private final long to;
+    // The index of the current value of each variable
+    private final int[] indexes;
+    private long position;
+
+    public GridIterator(VariableRange[] ranges) {
+        this(ranges, 0, gridSize(ranges));
+    }
+
+    private GridIterator(VariableRange[] ranges, long from, long to) {
+        super(ranges);
+        this.from = from;
+        this.to = to;
+        this.position = from;
+        // Decomposes the starting index into the index of each variable, the last variable being the least significant digit
+        this.indexes = new int[ranges.length];
+        long rest = from;
+        for (int i = ranges.length - 1; i >= 0 && rest > 0; i--) {
+            indexes[i] = (int) (rest % ranges[i].size());
+            rest /= ranges[i].size();
+        }
+    }
+
+    // This method computes the number of points of the cartesian product of the ranges
+    private static long gridSize(VariableRange[] ranges) {
+        long product = 1;
+        try {
+            for (VariableRange range : ranges) {
+                product = Math.multiplyExact(product, range.size());
+            }
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("ERR; (IllegalArgumentException) Too many values in the cartesian product of the variables.");
+        }
+        return product;
+    }
+
+    @Override
+    public long size() {
+        return to - from;
+    }
+
+    @Override
+    public long start() {
+        return from;
+    }
+
+    @Override
+    public PointIterator slice(long from, long to) {
+        return new GridIterator(ranges, this.from + from, this.from + to);
+    }
+
+    @Override
+    public boolean next(double[] point) {
+        if (position >= to) {
+            return false;
+        }
+        if (position == from) {
+            for (int i = 0; i < ranges.length; i++) {
+                point[i] = ranges[i].valueAt(indexes[i]);
+            }
+        } else {
+            // Increments the last variable, carrying into the previous ones when a range is exhausted
+            for (int i = ranges.length - 1; i >= 0; i--) {
+                if (++indexes[i] < ranges[i].size()) {
+                    point[i] = ranges[i].valueAt(indexes[i]);
+                    break;
+                }
+                indexes[i] = 0;
+                point[i] = ranges[i].valueAt(0);
+            }
+        }
+        position++;
+        return true;
+    }
+
+    // The points of a block are written in runs of consecutive values of the last variable, during which the other variables do not change
+    @Override
+    public int nextBlock(double[][] columns, int length) {
+        int last = ranges.length - 1;
+        if (last < 0) {
+            return super.nextBlock(columns, length);
+        }
+        int count = 0;
+        while (count < length && position < to) {
+            if (position != from) {
+                // Moves the indexes from the last point returned to the next one
+                for (int i = last; i >= 0; i--) {
+                    if (++indexes[i] < ranges[i].size()) {
+                        break;
+                    }
+                    indexes[i] = 0;
+                }
+            }
+            int run = (int) Math.min(Math.min(length - count, to - position), ranges[last].size() - indexes[last]);
+            for (int i = 0; i < last; i++) {
+                Arrays.fill(columns[i], count, count + run, ranges[i].valueAt(indexes[i]));
+            }
+            VariableRange range = ranges[last];
+            double[] column = columns[last];
+            int first = indexes[last];
+            for (int k = 0; k < run; k++) {
+                column[count + k] = range.valueAt(first + k);
+            }
+            // The indexes describe the last point returned, as after next()
+            indexes[last] += run - 1;
+            position += run;
+            count += run;
+        }
+        return count;
+    }
+}
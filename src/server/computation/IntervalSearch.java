@@ -0,0 +1,423 @@
+package server.computation;
+
+import server.exception.ComputationException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+// The IntervalSearch class computes MIN and MAX over a GRID by branch and bound instead of evaluating every point.
+// The grid is seen as a box of variable indexes: the program is evaluated over the intervals of values of a box, giving bounds of the results
+// of all its points, and the box is split in halves until it is small enough to be evaluated exactly, point by point.
+// A box is pruned when its bounds cannot beat the best result found so far, but only if they also prove that no divisor can be zero in it:
+// boxes that may raise an error are always explored, so the search raises the error of the first failing point, as the evaluation does.
+// Once an error is found, only the boxes that may raise an earlier one are explored.
+//
+// The bounds are exact for the values computed in double precision: +, -, * and / round to nearest, which is monotone,
+// so the corners of the operands bound the rounded results; Math.pow is only semi-monotone and its bounds are widened by one ulp.
+// NaN results and signed zeros are accounted for so that the result is the one of Double.compare, as in Aggregate.
+public class IntervalSearch {
+
+    // Grids with fewer points than this are evaluated point by point
+    private static final long MIN_POINTS = Long.getLong("server.intervalSearchMinPoints", 1 << 16);
+    // Boxes with at most this many points are evaluated exactly
+    private static final int LEAF_POINTS = 1024;
+
+    private final ExpressionProgram program;
+    private final VariableRange[] ranges;
+    private final boolean minimum;
+    private final StageTimes times;
+    private final CancellationToken token;
+
+    // The instructions of the program
+    private final byte[] opcodes;
+    private final int[] operands;
+    private final double[] constants;
+    private final int maxStackDepth;
+
+    // The interval stack, followed by the temporary slots: the bounds of the values and whether they may be NaN
+    private final double[] low;
+    private final double[] high;
+    private final boolean[] maybeNaN;
+
+    // The number of points of the grid after each variable, i.e. the distance between two consecutive values of a variable
+    private final long[] strides;
+
+    // The buffers of the exact evaluation of a box
+    private final double[][] columns;
+    private final double[][] blockStack;
+    private final double[][] results;
+    private final long[] indexes;
+    private final double[] point;
+    private final double[] pointStack;
+    private final double[] pointResults;
+
+    // The best results found so far, and the first error in point order
+    private final Aggregate aggregate = new Aggregate();
+    private long errorIndex = Long.MAX_VALUE;
+    private String error;
+    private long evaluatedPoints = 0;
+
+    // A box of the grid: the interval of indexes of each variable, and the bounds of the results of its points
+    private static class Box {
+        private final int[] from;
+        private final int[] to;
+        private final long points;
+        private final long firstIndex;
+        private double low;
+        private double high;
+        private boolean maybeNaN;
+        private boolean mayFail;
+
+        Box(int[] from, int[] to, long[] strides) {
+            this.from = from;
+            this.to = to;
+            long count = 1;
+            long index = 0;
+            for (int i = 0; i < from.length; i++) {
+                count *= to[i] - from[i] + 1;
+                index += from[i] * strides[i];
+            }
+            this.points = count;
+            this.firstIndex = index;
+        }
+    }
+
+    private IntervalSearch(ExpressionProgram program, VariableRange[] ranges, boolean minimum, StageTimes times, CancellationToken token) {
+        this.program = program;
+        this.ranges = ranges;
+        this.minimum = minimum;
+        this.times = times;
+        this.token = token;
+        this.opcodes = program.getOpcodes();
+        this.operands = program.getOperands();
+        this.constants = program.getConstants();
+        this.maxStackDepth = program.getMaxStackDepth();
+        int slots = maxStackDepth + program.getTempCount();
+        this.low = new double[slots];
+        this.high = new double[slots];
+        this.maybeNaN = new boolean[slots];
+        this.strides = new long[ranges.length];
+        long stride = 1;
+        for (int i = ranges.length - 1; i >= 0; i--) {
+            strides[i] = stride;
+            stride *= ranges[i].size();
+        }
+        this.columns = new double[ranges.length][LEAF_POINTS];
+        this.blockStack = program.newBlockStack(LEAF_POINTS);
+        this.results = new double[program.getResultCount()][LEAF_POINTS];
+        this.indexes = new long[LEAF_POINTS];
+        this.point = new double[ranges.length];
+        this.pointStack = program.newStack();
+        this.pointResults = new double[program.getResultCount()];
+    }
+
+    // Returns true if the search can compute the given request: MIN or MAX over a large enough GRID, with every variable valued
+    public static boolean applies(ExpressionProgram program, PointIterator points, String computationType, String mergeType) {
+        if (!mergeType.equals("GRID") || !(computationType.equals("MIN") || computationType.equals("MAX"))
+                || points.size() == 0 || points.size() < MIN_POINTS) {
+            return false;
+        }
+        for (byte opcode : program.getOpcodes()) {
+            if (opcode == ExpressionProgram.UNVALUED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // This method computes the aggregate of the request, whose result is the one of evaluating every point.
+    // It stops with the error of the token once it tells to, if it is not null.
+    public static Aggregate search(ExpressionProgram program, List<VariableRange> ranges, String computationType, StageTimes times,
+                                   CancellationToken token) {
+        IntervalSearch search = new IntervalSearch(program, ranges.toArray(new VariableRange[0]), computationType.equals("MIN"), times, token);
+        long startTime = times != null ? System.nanoTime() : 0;
+        search.run();
+        if (times != null) {
+            times.addEvaluationTime(System.nanoTime() - startTime);
+            times.addPoints(search.evaluatedPoints, program.getInstructionCount());
+        }
+        if (search.error != null) {
+            search.aggregate.fail(search.errorIndex, search.error);
+        }
+        return search.aggregate;
+    }
+
+    // This method explores the boxes depth first, the most promising half of a box first
+    private void run() {
+        int[] from = new int[ranges.length];
+        int[] to = new int[ranges.length];
+        for (int i = 0; i < ranges.length; i++) {
+            to[i] = ranges[i].size() - 1;
+        }
+        Box grid = new Box(from, to, strides);
+        bound(grid);
+        Deque<Box> boxes = new ArrayDeque<>();
+        boxes.push(grid);
+
+        while (!boxes.isEmpty()) {
+            Box box = boxes.pop();
+            if (isPruned(box)) {
+                continue;
+            }
+            if (box.points <= LEAF_POINTS) {
+                if (evaluatedPoints > 0 && token != null && token.shouldStop()) {
+                    error = token.stopMessage();
+                    errorIndex = box.firstIndex;
+                    return;
+                }
+                evaluate(box);
+                continue;
+            }
+            // Splits the variable with the most values in halves
+            int widest = 0;
+            for (int i = 1; i < ranges.length; i++) {
+                if (box.to[i] - box.from[i] > box.to[widest] - box.from[widest]) {
+                    widest = i;
+                }
+            }
+            int middle = box.from[widest] + (box.to[widest] - box.from[widest]) / 2;
+            int[] lowerTo = box.to.clone();
+            lowerTo[widest] = middle;
+            int[] upperFrom = box.from.clone();
+            upperFrom[widest] = middle + 1;
+            Box lower = new Box(box.from, lowerTo, strides);
+            Box upper = new Box(upperFrom, box.to, strides);
+            bound(lower);
+            bound(upper);
+            // The half that may raise an error is explored first, to find the first failing point early; otherwise the one with the best bound
+            boolean upperFirst;
+            if (lower.mayFail || upper.mayFail) {
+                upperFirst = !lower.mayFail;
+            } else if (minimum) {
+                upperFirst = upper.low < lower.low;
+            } else {
+                upperFirst = upper.high > lower.high;
+            }
+            boxes.push(upperFirst ? lower : upper);
+            boxes.push(upperFirst ? upper : lower);
+        }
+    }
+
+    // Returns true if no point of the box can change the result
+    private boolean isPruned(Box box) {
+        // Once an error is found, the result is the first error: only boxes that may raise an earlier one matter
+        if (error != null) {
+            return !box.mayFail || box.firstIndex > errorIndex;
+        }
+        if (box.mayFail || aggregate.getCount() == 0) {
+            return false;
+        }
+        if (minimum) {
+            // A zero bound may stand for -0.0, which is smaller than 0.0; NaN results never beat a number
+            double lowest = box.low == 0 ? -0.0 : box.low;
+            return Double.compare(lowest, aggregate.getMin()) >= 0;
+        }
+        // NaN is the largest result
+        double highest = box.high == 0 ? 0.0 : box.high;
+        return !box.maybeNaN && Double.compare(highest, aggregate.getMax()) <= 0;
+    }
+
+    // This method evaluates every point of the box, in point order, and keeps the first error
+    private void evaluate(Box box) {
+        int dimension = ranges.length;
+        int[] current = box.from.clone();
+        int length = 0;
+        // Enumerates the points of the box like an odometer, the last variable changing fastest, as GridIterator does
+        while (true) {
+            long index = 0;
+            for (int i = 0; i < dimension; i++) {
+                columns[i][length] = ranges[i].valueAt(current[i]);
+                index += current[i] * strides[i];
+            }
+            indexes[length++] = index;
+            int i = dimension - 1;
+            while (i >= 0 && current[i] == box.to[i]) {
+                current[i] = box.from[i];
+                i--;
+            }
+            if (i < 0) {
+                break;
+            }
+            current[i]++;
+        }
+        evaluatedPoints += length;
+
+        int failure = program.evaluateBlock(columns, length, blockStack, results);
+        aggregate.acceptBlock(results, failure);
+        // From the first point that may fail, the points are evaluated one at a time to raise the error
+        for (int k = failure; k < length; k++) {
+            for (int i = 0; i < dimension; i++) {
+                point[i] = columns[i][k];
+            }
+            try {
+                program.evaluate(point, pointStack, pointResults);
+            } catch (ComputationException e) {
+                if (indexes[k] < errorIndex) {
+                    errorIndex = indexes[k];
+                    error = Evaluation.errorMessage(e);
+                }
+                return;
+            }
+            aggregate.accept(pointResults);
+        }
+    }
+
+    // This method evaluates the program over the intervals of values of the box, and stores the bounds of its results in the box
+    private void bound(Box box) {
+        box.low = Double.POSITIVE_INFINITY;
+        box.high = Double.NEGATIVE_INFINITY;
+        box.maybeNaN = false;
+        box.mayFail = false;
+        int sp = 0;
+        for (int pc = 0; pc < opcodes.length; pc++) {
+            int operand = operands[pc];
+            switch (opcodes[pc]) {
+                case ExpressionProgram.CONSTANT:
+                    if (Double.isNaN(constants[operand])) {
+                        // Folded constants may be NaN, which the bounds of the other values cannot hold
+                        set(sp++, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, true);
+                    } else {
+                        set(sp++, constants[operand], constants[operand], false);
+                    }
+                    break;
+                case ExpressionProgram.VARIABLE:
+                    // The values of a range increase with their index
+                    set(sp++, ranges[operand].valueAt(box.from[operand]), ranges[operand].valueAt(box.to[operand]), false);
+                    break;
+                case ExpressionProgram.SUM:
+                case ExpressionProgram.SUBTRACTION:
+                case ExpressionProgram.MULTIPLICATION:
+                    sp--;
+                    arithmetic(opcodes[pc], sp - 1, sp);
+                    break;
+                case ExpressionProgram.DIVISION:
+                    sp--;
+                    if (low[sp] <= 0 && high[sp] >= 0) {
+                        // The divisor may be zero: the points of the box may fail, and the quotient is unbounded
+                        box.mayFail = true;
+                        set(sp - 1, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, true);
+                    } else {
+                        arithmetic(ExpressionProgram.DIVISION, sp - 1, sp);
+                    }
+                    break;
+                case ExpressionProgram.POWER:
+                    sp--;
+                    power(sp - 1, sp);
+                    break;
+                case ExpressionProgram.RESULT:
+                    sp--;
+                    box.low = Math.min(box.low, low[sp]);
+                    box.high = Math.max(box.high, high[sp]);
+                    box.maybeNaN |= maybeNaN[sp];
+                    break;
+                case ExpressionProgram.STORE_TEMP:
+                    set(maxStackDepth + operand, low[sp - 1], high[sp - 1], maybeNaN[sp - 1]);
+                    break;
+                case ExpressionProgram.LOAD_TEMP:
+                    set(sp++, low[maxStackDepth + operand], high[maxStackDepth + operand], maybeNaN[maxStackDepth + operand]);
+                    break;
+                default:
+                    // Unvalued variables are not searched
+                    throw new IllegalStateException("Unexpected instruction " + opcodes[pc]);
+            }
+        }
+    }
+
+    private void set(int slot, double lowValue, double highValue, boolean nan) {
+        low[slot] = lowValue;
+        high[slot] = highValue;
+        maybeNaN[slot] = nan;
+    }
+
+    // This method applies +, -, * or / to the intervals of the two slots, storing the result in the left one.
+    // The operation is monotone in each operand, so its extreme values are at the corners.
+    private void arithmetic(byte opcode, int left, int right) {
+        double a = low[left];
+        double b = high[left];
+        double c = low[right];
+        double d = high[right];
+        boolean nan = maybeNaN[left] || maybeNaN[right];
+        double ac = apply(opcode, a, c);
+        double ad = apply(opcode, a, d);
+        double bc = apply(opcode, b, c);
+        double bd = apply(opcode, b, d);
+        if (Double.isNaN(ac) || Double.isNaN(ad) || Double.isNaN(bc) || Double.isNaN(bd)) {
+            set(left, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, true);
+            return;
+        }
+        // Zero times infinity is NaN, even when zero is inside an interval and not at a corner
+        if (opcode == ExpressionProgram.MULTIPLICATION
+                && ((a <= 0 && b >= 0 && (Double.isInfinite(c) || Double.isInfinite(d)))
+                || (c <= 0 && d >= 0 && (Double.isInfinite(a) || Double.isInfinite(b))))) {
+            nan = true;
+        }
+        set(left, Math.min(Math.min(ac, ad), Math.min(bc, bd)), Math.max(Math.max(ac, ad), Math.max(bc, bd)), nan);
+    }
+
+    private static double apply(byte opcode, double x, double y) {
+        switch (opcode) {
+            case ExpressionProgram.SUM:
+                return x + y;
+            case ExpressionProgram.SUBTRACTION:
+                return x - y;
+            case ExpressionProgram.MULTIPLICATION:
+                return x * y;
+            default:
+                return x / y;
+        }
+    }
+
+    // This method raises the interval of the left slot to the power of the interval of the right one, storing the result in the left one
+    private void power(int left, int right) {
+        double a = low[left];
+        double b = high[left];
+        double c = low[right];
+        double d = high[right];
+        boolean nan = maybeNaN[left] || maybeNaN[right];
+
+        if (a >= 0 && !(a == 0 && c < 0)) {
+            // Over non-negative bases, the power is monotone in each operand, so its extreme values are at the corners.
+            // A zero base with a negative exponent is excluded, as (-0.0)^y may be negative infinity.
+            // One to the power of an infinity is NaN.
+            if (a <= 1 && b >= 1 && (Double.isInfinite(c) || Double.isInfinite(d))) {
+                nan = true;
+            }
+            corners(left, Math.pow(a, c), Math.pow(a, d), Math.pow(b, c), Math.pow(b, d), nan);
+        } else if (c == d && c == Math.rint(c) && !Double.isInfinite(c) && !maybeNaN[right]) {
+            // An integer exponent: the power of a negative base is the power of its absolute value, with the sign of odd exponents
+            if (c == 0) {
+                // Anything to the power of zero is one, even NaN
+                set(left, 1, 1, false);
+            } else if (a <= 0 && b >= 0) {
+                if (c < 0) {
+                    // A zero base gives an infinity, whose sign depends on the sign of the zero
+                    set(left, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, nan);
+                } else if (Math.abs(c % 2) == 1) {
+                    // Odd powers are increasing
+                    corners(left, Math.pow(a, c), Math.pow(b, c), Math.pow(a, c), Math.pow(b, c), nan);
+                } else {
+                    // Even powers are decreasing below zero and increasing above it
+                    corners(left, 0, Math.pow(a, c), Math.pow(b, c), 0, nan);
+                }
+            } else {
+                // The base has a constant sign, so the power is monotone
+                corners(left, Math.pow(a, c), Math.pow(b, c), Math.pow(a, c), Math.pow(b, c), nan);
+            }
+        } else {
+            // A negative base with a non-integer exponent is NaN
+            set(left, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, true);
+        }
+    }
+
+    // This method stores in the slot the interval of the four values, widened by one ulp, or an unbounded interval if one is NaN
+    private void corners(int slot, double v1, double v2, double v3, double v4, boolean nan) {
+        if (Double.isNaN(v1) || Double.isNaN(v2) || Double.isNaN(v3) || Double.isNaN(v4)) {
+            set(slot, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, true);
+            return;
+        }
+        double lowest = Math.min(Math.min(v1, v2), Math.min(v3, v4));
+        double highest = Math.max(Math.max(v1, v2), Math.max(v3, v4));
+        set(slot, Math.nextDown(lowest), Math.nextUp(highest), nan);
+    }
+}
@@ -0,0 +1,75 @@
+package server.computation;
+
+// The LockstepIterator class performs an element-wise merge of the variable ranges: the i-th point holds the i-th value of every variable.
+public class LockstepIterator extends PointIterator {
+
+    private final int from;
+    private final int to;
+    private int index;
+
+    // It throws an IllegalArgumentException if the variable ranges do not all have the same size.
+    public LockstepIterator(VariableRange[] ranges) {
+        this(ranges, 0, commonSize(ranges));
+    }
+
+    private LockstepIterator(VariableRange[] ranges, int from, int to) {
+        super(ranges);
+        this.from = from;
+        this.to = to;
+        this.index = from;
+    }
+
+    // This method checks that all the ranges have the same size and returns it
+    private static int commonSize(VariableRange[] ranges) {
+        int size = -1;
+        for (VariableRange range : ranges) {
+            if (size == -1) {
+                size = range.size();
+            } else if (range.size() != size) {
+                throw new IllegalArgumentException("ERR; (IllegalArgumentException) All variables must have the same number of values for element-wise merge.");
+            }
+        }
+        return Math.max(size, 0);
+    }
+
+    @Override
+    public long size() {
+        return to - from;
+    }
+
+    @Override
+    public long start() {
+        return from;
+    }
+
+    @Override
+    public PointIterator slice(long from, long to) {
+        return new LockstepIterator(ranges, (int) (this.from + from), (int) (this.from + to));
+    }
+
+    @Override
+    public boolean next(double[] point) {
+        if (index >= to) {
+            return false;
+        }
+        for (int i = 0; i < ranges.length; i++) {
+            point[i] = ranges[i].valueAt(index);
+        }
+        index++;
+        return true;
+    }
+
+    @Override
+    public int nextBlock(double[][] columns, int length) {
+        int count = Math.min(length, to - index);
+        for (int i = 0; i < ranges.length; i++) {
+            VariableRange range = ranges[i];
+            double[] column = columns[i];
+            for (int k = 0; k < count; k++) {
+                column[k] = range.valueAt(index + k);
+            }
+        }
+        index += count;
+        return count;
+    }
+}
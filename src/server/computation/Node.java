@@ -1,7 +1,8 @@
 package server.computation;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
-import java.util.Objects;
 
 public abstract class Node {
     private final List<Node> children;
@@ -14,17 +15,53 @@ public abstract class Node {
         return children;
     }
 
+    // Returns true if this node holds the same value as the other one, of the same class, whatever their children
+    protected abstract boolean sameValue(Node other);
+
+    // Returns the hash code of the value of this node, whatever its children
+    protected abstract int valueHash();
+
+    // Two nodes are equal if they are of the same class, hold the same value and have equal children.
+    // The trees are walked with an explicit stack of the pairs of nodes left to compare, as Operator.toString walks them,
+    // so a deeply nested expression does not need a deep thread stack
     @Override
-    public boolean equals(Object o) {
+    public final boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
-        Node node = (Node) o;
-        return Objects.equals(children, node.children);
+        Deque<Node> pending = new ArrayDeque<>();
+        pending.push(this);
+        pending.push((Node) o);
+        while (!pending.isEmpty()) {
+            Node other = pending.pop();
+            Node node = pending.pop();
+            if (node == other) {
+                continue;
+            }
+            if (node.getClass() != other.getClass() || !node.sameValue(other) || node.children.size() != other.children.size()) {
+                return false;
+            }
+            for (int i = 0; i < node.children.size(); i++) {
+                pending.push(node.children.get(i));
+                pending.push(other.children.get(i));
+            }
+        }
+        return true;
     }
 
+    // The hash code combines the values of the nodes and their numbers of children in prefix order, visited as equals does
     @Override
-    public int hashCode() {
-        return Objects.hash(children);
+    public final int hashCode() {
+        int hash = 1;
+        Deque<Node> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            hash = 31 * (31 * hash + node.valueHash()) + node.children.size();
+            for (int i = node.children.size() - 1; i >= 0; i--) {
+                pending.push(node.children.get(i));
+            }
+        }
+        return hash;
     }
 
-}
\ No newline at end of file
+}
@@ -1,22 +1,22 @@
 package server.computation;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
-import java.util.Objects;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.function.DoubleBinaryOperator;
 
 public class Operator extends Node {
 
     public enum Type {
-        SUM('+', a -> a[0] + a[1]),
-        SUBTRACTION('-', a -> a[0] - a[1]),
-        MULTIPLICATION('*', a -> a[0] * a[1]),
-        DIVISION('/', a -> a[0] / a[1]),
-        POWER('^', a -> Math.pow(a[0], a[1]));
+        SUM('+', (a, b) -> a + b),
+        SUBTRACTION('-', (a, b) -> a - b),
+        MULTIPLICATION('*', (a, b) -> a * b),
+        DIVISION('/', (a, b) -> a / b),
+        POWER('^', Math::pow);
         private final char symbol;
-        private final Function<double[], Double> function;
+        private final DoubleBinaryOperator function;
 
-        Type(char symbol, Function<double[], Double> function) {
+        Type(char symbol, DoubleBinaryOperator function) {
             this.symbol = symbol;
             this.function = function;
         }
@@ -25,16 +25,28 @@ public class Operator extends Node {
             return symbol;
         }
 
-        public Function<double[], Double> getFunction() {
+        public DoubleBinaryOperator getFunction() {
             return function;
         }
+
+        // Applies the operator to two primitive operands, without boxing
+        public double apply(double left, double right) {
+            return function.applyAsDouble(left, right);
+        }
     }
 
     private final Type type;
+    // The node this operator was simplified from, if any: the operator is described by its text
+    private final Node source;
 
     public Operator(Type type, List<Node> children) {
+        this(type, children, null);
+    }
+
+    public Operator(Type type, List<Node> children, Node source) {
         super(children);
         this.type = type;
+        this.source = source;
     }
 
     public Type getType() {
@@ -42,27 +54,47 @@ public class Operator extends Node {
     }
 
     @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        Operator operator = (Operator) o;
-        return type == operator.type;
+    protected boolean sameValue(Node other) {
+        return type == ((Operator) other).type;
     }
 
     @Override
-    public int hashCode() {
-        return Objects.hash(type);
+    protected int valueHash() {
+        return type.hashCode();
     }
 
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        sb.append("(");
-        sb.append(getChildren().stream()
-                .map(Node::toString)
-                .collect(Collectors.joining(" " + Character.toString(type.symbol) + " "))
-        );
-        sb.append(")");
+        Deque<Object> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            Object item = pending.pop();
+            if (item instanceof String) {
+                sb.append((String) item);
+                continue;
+            }
+            Node node = (Node) item;
+            // An operator simplified from another node is described by the text of that node
+            while (node instanceof Operator && ((Operator) node).source != null) {
+                node = ((Operator) node).source;
+            }
+            if (!(node instanceof Operator)) {
+                sb.append(node);
+                continue;
+            }
+            Operator operator = (Operator) node;
+            List<Node> children = operator.getChildren();
+            String separator = " " + operator.type.symbol + " ";
+            sb.append("(");
+            pending.push(")");
+            for (int i = children.size() - 1; i >= 0; i--) {
+                pending.push(children.get(i));
+                if (i > 0) {
+                    pending.push(separator);
+                }
+            }
+        }
         return sb.toString();
     }
 }
@@ -1,9 +1,9 @@
 package server.computation;
 import server.exception.*;
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Deque;
 
 // The Parser class is responsible for parsing expressions from a string
 public class Parser {
@@ -13,169 +13,169 @@ public class Parser {
 
     private final String string;
 
+    // The characters of the string, scanned once from left to right
+    private final char[] chars;
+
     // Current position in the string
     private int cursor = 0;
 
     public Parser(String string) {
         // Remove spaces from the input string
         this.string = string.replace(" ", "");
+        this.chars = this.string.toCharArray();
     }
 
-    // Enum representing the possible types of tokens in an expression
-    public enum TokenType {
-        CONSTANT("[0-9]+(\\.[0-9]+)?"),
-        VARIABLE("[a-z][a-z0-9]*"),
-        OPERATOR("[+\\-\\*/\\^]"),
-        OPEN_BRACKET("\\("),
-        CLOSED_BRACKET("\\)");
-        private final String regex;
-
-        TokenType(String regex) {
-            this.regex = regex;
-        }
-
-        // Function to get the next token of this type in a string, starting from a given position
-        public Token next(String s, int i) {
-            Matcher matcher = Pattern.compile(regex).matcher(s);
-            if (!matcher.find(i)) {
-                return null;
-            }
-            return new Token(matcher.start(), matcher.end());
-        }
-
-        public String getRegex() {
-            return regex;
-        }
+    // Class representing an operation whose closing bracket has not been reached yet
+    private static class OpenOperation {
+        private Node left;
+        private Operator.Type type;
     }
 
-    // Class representing a token, with a start and end position in the string
-    private static class Token {
-        private final int start;
-        private final int end;
-
-        public Token(int start, int end) {
-            this.start = start;
-            this.end = end;
-        }
-    }
-
-    // Function to parse an expression from the string
+    // Function to parse an expression from the string.
+    // Nested operations are kept on an explicit stack instead of recursive calls, so deeply nested expressions
+    // are parsed in linear time without overflowing the thread stack.
     public Node parse() throws ExpressionParsingException {
-        Node expression = parseExpression();
-
-        // Check if whole expression was not enclosed in brackets
-        if (cursor < string.length()) {
-            throw new ExpressionParsingException(String.format(
-                    "There's an error in the expression: '%s'",
-                    string
-            ));
-        }
-        return expression;
-    }
-
-    // Helper function to parse an expression, throwing an exception if it encounters invalid syntax
-    private Node parseExpression() throws ExpressionParsingException {
-        // Check if the expression is unexpectedly empty
-        if (cursor >= string.length()) {
-            throw new ExpressionParsingException("Unexpected end of expression.");
-        }
-
-        Token token;
-        token = TokenType.CONSTANT.next(string, cursor);
-        if (token != null && token.start == cursor) {
-            // If a constant was successfully parsed, return a new Constant node
-            cursor = token.end;
-            return new Constant(Double.parseDouble(string.substring(token.start, token.end)));
-        }
-
-        // Continue with other token types if a constant was not found
-        token = TokenType.VARIABLE.next(string, cursor);
-        if (token != null && token.start == cursor) {
-            cursor = token.end;
-            return new Variable(string.substring(token.start, token.end));
-        }
-
-        // Continue with other token types if a variable was not found
-        token = TokenType.OPEN_BRACKET.next(string, cursor);
-        if (token != null && token.start == cursor) {
-            cursor = token.end;
-
-            // Try to parse a nested expression, an operator, and another nested expression
-            Node child1 = parseExpression();
-
-            if (cursor >= string.length()) {
-                throw new ExpressionParsingException("Unexpected end of expression.");
-            }
-
-            Token operatorToken = TokenType.OPERATOR.next(string, cursor);
-            if (operatorToken != null && operatorToken.start == cursor) {
-                cursor = operatorToken.end;
-
-                String operatorString = string.substring(operatorToken.start, operatorToken.end);
-                Operator.Type operatorType = null;
-                for (Operator.Type type : Operator.Type.values()) {
-                    if (operatorString.equals(Character.toString(type.getSymbol()))) {
-                        operatorType = type;
-                        break;
-                    }
+        Deque<OpenOperation> operations = new ArrayDeque<>();
+
+        while (true) {
+            // Parse an operand: a constant, a variable, or the opening brackets of nested operations followed by their first operand
+            Node node = null;
+            while (node == null) {
+                // Check if the expression is unexpectedly empty
+                if (cursor >= chars.length) {
+                    throw new ExpressionParsingException("Unexpected end of expression.");
                 }
-                if (operatorType == null) {
+                char ch = chars[cursor];
+                if (isDigit(ch)) {
+                    // If a constant was successfully scanned, it becomes a new Constant node
+                    node = scanConstant();
+                } else if (isLowercaseLetter(ch)) {
+                    node = scanVariable();
+                } else if (ch == '(') {
+                    // An operation starts: its first operand follows the bracket
+                    cursor++;
+                    operations.push(new OpenOperation());
+                } else if (Character.isAlphabetic(ch)) {
+                    // Check for unvalued variable or unknown operation
                     throw new ExpressionParsingException(String.format(
-                            "Unknown operator at %d: '%s'",
-                            operatorToken.start,
-                            operatorString
+                            "Unvalued variable or unknown operation at %d: '%s'",
+                            cursor,
+                            string.substring(cursor)
+                    ));
+                } else {
+                    throw new ExpressionParsingException(String.format(
+                            "Unexpected char at %d: '%s'",
+                            cursor,
+                            ch
                     ));
                 }
+            }
 
-                Node child2 = parseExpression();
+            // Attach the operand to the innermost open operation, closing every operation that it completes
+            while (true) {
+                OpenOperation operation = operations.peek();
+                if (operation == null) {
+                    // The whole expression has been parsed: check if it was not enclosed in brackets
+                    if (cursor < chars.length) {
+                        throw new ExpressionParsingException(String.format(
+                                "There's an error in the expression: '%s'",
+                                string
+                        ));
+                    }
+                    return node;
+                }
 
-                // Check if the operation is correctly enclosed in brackets
-                if (cursor >= string.length()) {
+                if (cursor >= chars.length) {
                     throw new ExpressionParsingException("Unexpected end of expression.");
                 }
-                Token closedBracketToken = TokenType.CLOSED_BRACKET.next(string, cursor);
-                if (closedBracketToken != null && closedBracketToken.start == cursor) {
-                    cursor = closedBracketToken.end;
-                } else {
+
+                if (operation.left == null) {
+                    // The operand is the first one of the operation: an operator must follow
+                    operation.left = node;
+                    operation.type = operatorType(chars[cursor]);
+                    if (operation.type == null) {
+                        char ch = chars[cursor];
+                        if (Character.isAlphabetic(ch)) {
+                            throw new ExpressionParsingException(String.format(
+                                    "Unvalued variable or unknown operation at %d: '%s'",
+                                    cursor,
+                                    ch
+                            ));
+                        } else {
+                            throw new ExpressionParsingException(String.format(
+                                    "Unexpected char at %d instead of operator: '%s'",
+                                    cursor,
+                                    ch
+                            ));
+                        }
+                    }
+                    cursor++;
+                    // Parse the second operand
+                    break;
+                }
+
+                // The operand is the second one of the operation: check if the operation is correctly enclosed in brackets
+                if (chars[cursor] != ')') {
                     throw new ExpressionParsingException(String.format(
                             "Operator not enclosed in brackets in expression: '%s'",
                             string
                     ));
                 }
-                return new Operator(operatorType, Arrays.asList(child1, child2));
-            } else {
-                char ch = string.charAt(cursor);
-                if (Character.isAlphabetic(ch)) {
-                    throw new ExpressionParsingException(String.format(
-                            "Unvalued variable or unknown operation at %d: '%s'",
-                            cursor,
-                            ch
-                    ));
-                } else {
-                    throw new ExpressionParsingException(String.format(
-                            "Unexpected char at %d instead of operator: '%s'",
-                            cursor,
-                            ch
-                    ));
-                }
+                cursor++;
+                operations.pop();
+                node = new Operator(operation.type, Arrays.asList(operation.left, node));
+            }
+        }
+    }
+
+    // Scans a constant: digits, optionally followed by a dot and more digits
+    private Node scanConstant() {
+        int start = cursor;
+        while (cursor < chars.length && isDigit(chars[cursor])) {
+            cursor++;
+        }
+        if (cursor + 1 < chars.length && chars[cursor] == '.' && isDigit(chars[cursor + 1])) {
+            cursor++;
+            while (cursor < chars.length && isDigit(chars[cursor])) {
+                cursor++;
             }
         }
+        return new Constant(Double.parseDouble(new String(chars, start, cursor - start)));
+    }
 
-        // Check for unvalued variable or unknown operation
-        if (cursor < string.length() && Character.isAlphabetic(string.charAt(cursor))) {
-            throw new ExpressionParsingException(String.format(
-                    "Unvalued variable or unknown operation at %d: '%s'",
-                    cursor,
-                    string.substring(cursor)
-            ));
+    // Scans a variable: a lowercase letter followed by lowercase letters and digits
+    private Node scanVariable() {
+        int start = cursor;
+        cursor++;
+        while (cursor < chars.length && (isLowercaseLetter(chars[cursor]) || isDigit(chars[cursor]))) {
+            cursor++;
         }
+        return new Variable(new String(chars, start, cursor - start));
+    }
 
-        throw new ExpressionParsingException(String.format(
-                "Unexpected char at %d: '%s'",
-                cursor,
-                string.charAt(cursor)
-        ));
+    // Returns the type of the operator with the given symbol, or null if it is not an operator
+    private static Operator.Type operatorType(char ch) {
+        switch (ch) {
+            case '+':
+                return Operator.Type.SUM;
+            case '-':
+                return Operator.Type.SUBTRACTION;
+            case '*':
+                return Operator.Type.MULTIPLICATION;
+            case '/':
+                return Operator.Type.DIVISION;
+            case '^':
+                return Operator.Type.POWER;
+            default:
+                return null;
+        }
     }
 
+    private static boolean isDigit(char ch) {
+        return ch >= '0' && ch <= '9';
+    }
 
+    private static boolean isLowercaseLetter(char ch) {
+        return ch >= 'a' && ch <= 'z';
+    }
 }
@@ -0,0 +1,59 @@
+package server.computation;
+
+import java.util.List;
+
+// The PointIterator class enumerates the points obtained by merging the ranges of the variables, one point at a time.
+// A point is a double array holding one value per variable, in the order of the ranges; it is filled in place so enumerating does not allocate.
+// Points are numbered from 0 in enumeration order, so an iterator can be restricted to a slice of indexes to split the work.
+public abstract class PointIterator {
+
+    protected final VariableRange[] ranges;
+    // The point used to fill blocks, allocated on the first block
+    private double[] blockPoint;
+
+    protected PointIterator(VariableRange[] ranges) {
+        this.ranges = ranges;
+    }
+
+    // This method creates the iterator for the given merge type: a cartesian product for GRID, an element-wise merge for LIST.
+    // It throws an IllegalArgumentException if the ranges cannot be merged.
+    public static PointIterator of(List<VariableRange> ranges, String mergeType) {
+        if (mergeType.equals("LIST")) {
+            return new LockstepIterator(ranges.toArray(new VariableRange[0]));
+        }
+        return new GridIterator(ranges.toArray(new VariableRange[0]));
+    }
+
+    // Returns the number of variables, i.e. the length of a point
+    public int dimension() {
+        return ranges.length;
+    }
+
+    // Returns the number of points, computed from the sizes of the ranges without enumerating them
+    public abstract long size();
+
+    // Returns the index of the first point enumerated by this iterator
+    public abstract long start();
+
+    // This method returns a new iterator over the points with index in [from, to) of this iterator
+    public abstract PointIterator slice(long from, long to);
+
+    // This method writes the values of the next point into the given array; it returns false when there are no more points
+    public abstract boolean next(double[] point);
+
+    // This method writes the next points, at most length of them, as columns: columns[v][k] is the value of variable v in the k-th point.
+    // It returns the number of points written, 0 when there are no more points.
+    public int nextBlock(double[][] columns, int length) {
+        if (blockPoint == null) {
+            blockPoint = new double[ranges.length];
+        }
+        int count = 0;
+        while (count < length && next(blockPoint)) {
+            for (int i = 0; i < ranges.length; i++) {
+                columns[i][count] = blockPoint[i];
+            }
+            count++;
+        }
+        return count;
+    }
+}
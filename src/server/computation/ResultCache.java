@@ -0,0 +1,135 @@
+package server.computation;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// The ResultCache class keeps the results of the most recent computations, keyed by the canonical form of their request,
+// so that clients polling the server with the same request are answered without evaluating it again.
+// Its size is accounted in estimated bytes of its entries: it evicts the least recently used entries to stay within its budget,
+// and entries expire after a time to live. Hits, misses, evictions and expirations are counted to size it.
+public class ResultCache {
+
+    // The estimated bytes of an entry besides the characters of its key: the map entry, the cached entry, the key string and the result
+    private static final int ENTRY_OVERHEAD = 160;
+
+    private final long capacity;
+    private final long timeToLive;
+    // An access-ordered map, whose eldest entry is the least recently used one; guarded by itself, like size
+    private final LinkedHashMap<String, Result> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    // A cached result, with the System.nanoTime value after which it expires
+    private static class Result {
+        private final ComputationResult value;
+        private final long expiry;
+        private final long size;
+
+        Result(ComputationResult value, long expiry, long size) {
+            this.value = value;
+            this.expiry = expiry;
+            this.size = size;
+        }
+    }
+
+    // The cache holds at most capacity estimated bytes, and its entries expire timeToLive milliseconds after they are cached.
+    // A capacity of 0 disables it.
+    public ResultCache(long capacity, long timeToLive) {
+        this.capacity = capacity;
+        this.timeToLive = TimeUnit.MILLISECONDS.toNanos(timeToLive);
+    }
+
+    // This method builds the key of a computation: its kinds, the definitions of its ranges sorted by variable name
+    // and its normalised expressions
+    public static String keyOf(String computationType, String mergeType, Iterable<String> sortedRanges, String expressions) {
+        StringBuilder key = new StringBuilder(computationType).append('_').append(mergeType).append(';');
+        String separator = "";
+        for (String range : sortedRanges) {
+            key.append(separator).append(range);
+            separator = ",";
+        }
+        return key.append(';').append(ExpressionCache.normalise(expressions)).toString();
+    }
+
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    // This method returns the cached result of the computation with the given key, or null if it is not cached or has expired
+    public ComputationResult get(String key) {
+        Result result;
+        synchronized (entries) {
+            result = entries.get(key);
+            if (result != null && System.nanoTime() - result.expiry >= 0) {
+                entries.remove(key);
+                size -= result.size;
+                expirations.increment();
+                result = null;
+            }
+        }
+        if (result == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return result.value;
+    }
+
+    // This method caches the result of the computation with the given key, evicting the least recently used entries if needed
+    public void put(String key, ComputationResult value) {
+        long entrySize = ENTRY_OVERHEAD + 2L * key.length();
+        if (entrySize > capacity) {
+            return;
+        }
+        Result result = new Result(value, System.nanoTime() + timeToLive, entrySize);
+        synchronized (entries) {
+            Result previous = entries.put(key, result);
+            if (previous != null) {
+                size -= previous.size;
+            }
+            size += entrySize;
+            Iterator<Result> eldest = entries.values().iterator();
+            while (size > capacity) {
+                size -= eldest.next().size;
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    // Returns the fraction of the lookups that were hits, 0 if there were none
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long lookups = hitCount + misses.sum();
+        return lookups == 0 ? 0 : (double) hitCount / lookups;
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    // Returns the estimated bytes held by the cache
+    public long getSize() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,565 @@
+package server.computation;
+
+import server.exception.RequestTooExpensiveException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// The ShardCoordinator class splits the computations over large grids into shards computed by peer servers, and merges their results.
+// The index space of the grid is split along its outermost variable, the first one by name, so that each shard covers consecutive values
+// of that variable and all the values of the others. Each shard is sent to a peer over the line protocol as PART_GRID_<from>_<to>;<ranges>;<expressions>,
+// and the peer answers with the partial aggregate of the points of index in [from, to): count;sum;compensation;min;max.
+// The aggregates are merged in point order, so the result, and the first error raised, are the same as when the whole grid is computed here.
+// Each peer takes the next shard once it has answered the previous one, so faster peers compute more shards. A shard whose peer fails,
+// times out or answers with an invalid response is reassigned to the other peers, and computed by this server after MAX_ATTEMPTS failures
+// or once no peer is left.
+// The whole computation is rejected if it costs more than the budget of all the peers together; the shards computed by this server
+// are admitted, and wait for their turn, as the shards sent by a coordinator.
+// The connections to the peers are kept open between computations, and closed once they are idle for IDLE_TIMEOUT.
+public class ShardCoordinator {
+    private static final Logger LOGGER = Logger.getLogger(ShardCoordinator.class.getName());
+
+    // Grids with fewer points than this are computed by this server
+    private static final long MIN_POINTS = Long.getLong("server.shardMinPoints", 1L << 20);
+    // The number of shards per peer, so that the shards of a slow or failed peer are taken by the others
+    private static final int SHARDS_PER_PEER = Math.max(1, Integer.getInteger("server.shardsPerPeer", 4));
+    // The number of peers a shard is sent to before this server computes it
+    private static final int MAX_ATTEMPTS = Math.max(1, Integer.getInteger("server.shardAttempts", 3));
+    // The longest time in milliseconds a peer may take to compute a shard, 0 for no limit
+    private static final int SHARD_TIMEOUT = Integer.getInteger("server.shardTimeout", 60_000);
+    // The longest time in milliseconds to connect to a peer
+    private static final int CONNECT_TIMEOUT = Integer.getInteger("server.peerConnectTimeout", 2000);
+    // The time in milliseconds after which a connection to a peer that is not used is closed, 0 to close it once its computation ends.
+    // A peer in blocking mode serves each connection with one of its threads, which an idle connection keeps from its other clients.
+    private static final long IDLE_TIMEOUT = Math.max(0, Long.getLong("server.peerIdleTimeout", 1000L));
+    // The hosts other than this machine whose connections may send shards, separated by ',', or * for any host
+    private static final String COORDINATORS = System.getProperty("server.coordinators", "");
+    private static final Set<InetAddress> COORDINATOR_ADDRESSES = resolve(COORDINATORS);
+    // The time in milliseconds between two checks of the token of the computation while the peers compute
+    private static final long POLL_INTERVAL = 50;
+    // The errors of the peers which are the result of the shard; the shard is computed elsewhere after any other error
+    private static final String[] EVALUATION_ERRORS = {"DivisionByZeroException", "ZeroOverZeroException", "ExpressionParsingException",
+            "IllegalArgumentException", "InvalidVariableRangeException"};
+
+    private final List<InetSocketAddress> peers;
+    // The threads sending the shards to the peers, one per peer and computation
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "shard-sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // The connections to each peer not used by a computation, the most recently used last
+    private final Map<InetSocketAddress, Deque<PeerConnection>> idle = new HashMap<>();
+    // The thread closing the idle connections
+    private final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "peer-connection-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ShardCoordinator(List<InetSocketAddress> peers) {
+        if (peers.isEmpty()) {
+            throw new IllegalArgumentException("A coordinator needs at least one peer");
+        }
+        this.peers = Collections.unmodifiableList(new ArrayList<>(peers));
+        if (IDLE_TIMEOUT > 0) {
+            reaper.scheduleWithFixedDelay(this::closeIdle, IDLE_TIMEOUT / 2 + 1, IDLE_TIMEOUT / 2 + 1, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // This method parses a list of peers such as localhost:9001,localhost:9002.
+    // It throws an IllegalArgumentException if a peer is not a host and a port.
+    public static List<InetSocketAddress> parsePeers(String peers) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String peer : peers.split(",")) {
+            int separator = peer.lastIndexOf(':');
+            if (separator <= 0 || separator == peer.length() - 1) {
+                throw new IllegalArgumentException("Invalid peer, expected host:port: " + peer);
+            }
+            addresses.add(InetSocketAddress.createUnresolved(peer.substring(0, separator).trim(),
+                    Integer.parseInt(peer.substring(separator + 1).trim())));
+        }
+        return addresses;
+    }
+
+    // This method tells whether a client may send shards: the shards answer with the partial aggregates of the computations,
+    // which are only meant for the coordinators, so they are accepted from this machine and from the hosts of server.coordinators only
+    public static boolean acceptsShardsFrom(InetAddress client) {
+        return client == null || client.isLoopbackAddress() || COORDINATORS.trim().equals("*") || COORDINATOR_ADDRESSES.contains(client);
+    }
+
+    private static Set<InetAddress> resolve(String hosts) {
+        Set<InetAddress> addresses = new HashSet<>();
+        for (String host : hosts.split(",")) {
+            if (host.isBlank() || host.trim().equals("*")) {
+                continue;
+            }
+            try {
+                Collections.addAll(addresses, InetAddress.getAllByName(host.trim()));
+            } catch (UnknownHostException e) {
+                LOGGER.log(Level.WARNING, "Unknown coordinator host: {0}", host.trim());
+            }
+        }
+        return addresses;
+    }
+
+    public List<InetSocketAddress> getPeers() {
+        return peers;
+    }
+
+    // This method tells whether the computation is sharded: MIN, MAX and AVG over a grid with at least MIN_POINTS points
+    public boolean applies(ComputationContext context) {
+        if (!context.getMergeType().equals("GRID") || context.getComputationType().equals("COUNT")) {
+            return false;
+        }
+        try {
+            return context.points().size() >= MIN_POINTS;
+        } catch (IllegalArgumentException e) {
+            // The error is reported by the computation on this server
+            return false;
+        }
+    }
+
+    // This method computes the result of the context, whose ranges are given by their canonical definitions separated by ','
+    // and whose expressions are given as the client sent them, by sharding it across the peers.
+    // It stops with the error of the token of the options once it tells to; the peers stop once their connection is reset.
+    public ComputationResult compute(ComputationContext context, String ranges, String expression, ComputationOptions options) {
+        // The whole computation is checked against the budget of all the peers before any shard is sent.
+        // It is not admitted here, as this server mostly waits for the peers: the shards computed here are admitted one by one.
+        try {
+            DataComputation.getAdmissionControl().check(context.cost(), peers.size());
+        } catch (RequestTooExpensiveException e) {
+            return ComputationResult.error(e.getMessage());
+        }
+        StageTimes times = options.getTimes();
+        CancellationToken token = options.getToken();
+        long startTime = System.nanoTime();
+        Job job = new Job(ranges + ";" + expression, split(context));
+        for (InetSocketAddress peer : peers) {
+            job.workerStarted();
+            executor.execute(() -> send(job, peer));
+        }
+        // The shards the peers cannot compute are computed here
+        Shard shard;
+        while ((shard = job.nextLocal(token)) != null) {
+            job.done(shard, context.computeShard(shard.from, shard.to, new ComputationOptions(null, token, null)));
+        }
+        if (token != null && token.shouldStop()) {
+            job.stop();
+            return ComputationResult.error(token.stopMessage());
+        }
+        if (job.isStopped()) {
+            return ComputationResult.error("ERR; (InterruptedException) Computation interrupted");
+        }
+        Aggregate aggregate = job.merge();
+        if (times != null) {
+            times.addEvaluationTime(System.nanoTime() - startTime);
+            times.addPoints(aggregate.getCount(), context.getProgram().getInstructionCount());
+        }
+        return aggregate.toResult(context.getComputationType());
+    }
+
+    // This method splits the index space of the grid along its outermost variable into about SHARDS_PER_PEER shards per peer
+    private List<Shard> split(ComputationContext context) {
+        long size = context.points().size();
+        long outerSize = context.getRanges().get(0).size();
+        long rowSize = size / outerSize;
+        int count = (int) Math.min(outerSize, (long) peers.size() * SHARDS_PER_PEER);
+        List<Shard> shards = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long fromRow = outerSize * i / count;
+            long toRow = outerSize * (i + 1) / count;
+            shards.add(new Shard(i, fromRow * rowSize, toRow * rowSize));
+        }
+        return shards;
+    }
+
+    // This method sends the shards of the job to a peer over a single connection, until there are none left or the peer fails.
+    // A failed peer takes no more shards of this job; it is tried again by the next computation.
+    private void send(Job job, InetSocketAddress peer) {
+        PeerConnection connection = null;
+        Shard shard = null;
+        try {
+            while ((shard = job.next()) != null) {
+                String response = null;
+                if (connection == null) {
+                    connection = takeIdle(peer);
+                    // An idle connection may have been closed by the peer meanwhile: the shard is then sent over a new connection
+                    if (connection != null) {
+                        if (!job.register(connection.socket)) {
+                            connection.close();
+                            connection = null;
+                            throw new IOException("Computation stopped");
+                        }
+                        response = exchangeQuietly(connection, job.requestOf(shard));
+                        if (response == null) {
+                            job.unregister(connection.socket);
+                            connection.close();
+                            connection = null;
+                        }
+                    }
+                }
+                if (connection == null) {
+                    connection = connect(job, peer);
+                }
+                if (response == null) {
+                    response = connection.exchange(job.requestOf(shard));
+                }
+                job.done(shard, parseResponse(response, shard));
+                shard = null;
+            }
+        } catch (IOException | NumberFormatException e) {
+            if (shard != null) {
+                job.failed(shard);
+            }
+            if (!job.isStopped()) {
+                LOGGER.log(Level.WARNING, "Peer {0}:{1} failed{2}: {3}", new Object[]{peer.getHostString(), String.valueOf(peer.getPort()),
+                        shard != null ? " on shard " + shard.index : "", e.getMessage()});
+            }
+            if (connection != null) {
+                job.unregister(connection.socket);
+                connection.close();
+                connection = null;
+            }
+        } finally {
+            // The connection is kept for the next computations, unless this one stopped and closed it
+            if (connection != null) {
+                if (job.unregister(connection.socket)) {
+                    putIdle(peer, connection);
+                } else {
+                    connection.close();
+                }
+            }
+            job.workerEnded();
+        }
+    }
+
+    // This method opens a new connection to the peer, closed if the computation stops while it connects
+    private PeerConnection connect(Job job, InetSocketAddress peer) throws IOException {
+        Socket socket = new Socket();
+        if (!job.register(socket)) {
+            throw new IOException("Computation stopped");
+        }
+        try {
+            InetSocketAddress address = peer.isUnresolved() ? new InetSocketAddress(peer.getHostString(), peer.getPort()) : peer;
+            socket.connect(address, CONNECT_TIMEOUT);
+            socket.setSoTimeout(SHARD_TIMEOUT);
+            socket.setTcpNoDelay(true);
+            return new PeerConnection(socket);
+        } catch (IOException e) {
+            job.unregister(socket);
+            Job.closeQuietly(socket);
+            throw e;
+        }
+    }
+
+    // This method sends a request over a connection and returns the response, or null if the connection fails
+    private static String exchangeQuietly(PeerConnection connection, String request) {
+        try {
+            return connection.exchange(request);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // This method returns the most recently used idle connection to the peer, or null if there is none
+    private PeerConnection takeIdle(InetSocketAddress peer) {
+        synchronized (idle) {
+            Deque<PeerConnection> connections = idle.get(peer);
+            return connections != null ? connections.pollLast() : null;
+        }
+    }
+
+    private void putIdle(InetSocketAddress peer, PeerConnection connection) {
+        if (IDLE_TIMEOUT == 0) {
+            connection.end();
+            return;
+        }
+        connection.lastUsed = System.nanoTime();
+        synchronized (idle) {
+            idle.computeIfAbsent(peer, key -> new ArrayDeque<>()).addLast(connection);
+        }
+    }
+
+    // This method closes the connections idle for IDLE_TIMEOUT or more, so that they do not hold the threads of blocking peers
+    private void closeIdle() {
+        long now = System.nanoTime();
+        List<PeerConnection> expired = new ArrayList<>();
+        synchronized (idle) {
+            for (Deque<PeerConnection> connections : idle.values()) {
+                Iterator<PeerConnection> iterator = connections.iterator();
+                while (iterator.hasNext()) {
+                    PeerConnection connection = iterator.next();
+                    if (now - connection.lastUsed >= TimeUnit.MILLISECONDS.toNanos(IDLE_TIMEOUT)) {
+                        iterator.remove();
+                        expired.add(connection);
+                    }
+                }
+            }
+        }
+        for (PeerConnection connection : expired) {
+            connection.end();
+        }
+    }
+
+    // This method reads the response of a peer to a shard: OK;<time>;<aggregate> or an error.
+    // The errors of the evaluation belong to the result; the other ones, which depend on the peer, throw an IOException to reassign the shard.
+    private static Aggregate parseResponse(String response, Shard shard) throws IOException {
+        if (response.startsWith("OK;")) {
+            String[] parts = response.split(";", 3);
+            if (parts.length < 3) {
+                throw new IOException("Invalid response: " + response);
+            }
+            return Aggregate.fromShard(parts[2]);
+        }
+        if (!isEvaluationError(response)) {
+            throw new IOException(response);
+        }
+        Aggregate aggregate = new Aggregate();
+        aggregate.fail(shard.from, response);
+        return aggregate;
+    }
+
+    // This method tells whether an error response of a peer comes from the request itself, so that any server would answer it too.
+    // The others, such as a budget or a timeout smaller than this server's, depend on the peer.
+    private static boolean isEvaluationError(String response) {
+        for (String error : EVALUATION_ERRORS) {
+            if (response.startsWith("ERR; (" + error + ")")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // This method stops the threads sending the shards and closes the connections to the peers
+    public void close() {
+        executor.shutdownNow();
+        reaper.shutdownNow();
+        synchronized (idle) {
+            for (Deque<PeerConnection> connections : idle.values()) {
+                for (PeerConnection connection : connections) {
+                    connection.end();
+                }
+            }
+            idle.clear();
+        }
+    }
+
+    // The PeerConnection class holds an open connection to a peer, used by one computation at a time
+    private static class PeerConnection {
+        private final Socket socket;
+        private final PrintWriter out;
+        private final BufferedReader in;
+        private long lastUsed;
+
+        PeerConnection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), false);
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        }
+
+        // Sends a request and returns its response
+        String exchange(String request) throws IOException {
+            out.println(request);
+            out.flush();
+            if (out.checkError()) {
+                throw new IOException("Connection closed by the peer");
+            }
+            String response = in.readLine();
+            if (response == null) {
+                throw new IOException("Connection closed by the peer");
+            }
+            return response;
+        }
+
+        // Ends the connection as a client does, so the peer closes it too
+        void end() {
+            out.println("BYE");
+            out.flush();
+            close();
+        }
+
+        void close() {
+            Job.closeQuietly(socket);
+        }
+    }
+
+    // The Shard class holds the points of index in [from, to) and the number of peers that failed to compute them
+    private static class Shard {
+        private final int index;
+        private final long from;
+        private final long to;
+        private int attempts = 0;
+
+        Shard(int index, long from, long to) {
+            this.index = index;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    // The Job class holds the state of a sharded computation: the shards waiting to be computed, the aggregates of those computed,
+    // and the connections to the peers, closed if the computation stops. It is shared by the threads of the peers and of the request.
+    private static class Job {
+        // The ranges and expressions of the requests of the shards
+        private final String body;
+        private final Deque<Shard> pending;
+        private final Aggregate[] aggregates;
+        private final List<Socket> sockets = new ArrayList<>();
+        private int remaining;
+        private int workers = 0;
+        private boolean stopped = false;
+
+        Job(String body, List<Shard> shards) {
+            this.body = body;
+            this.pending = new ArrayDeque<>(shards);
+            this.aggregates = new Aggregate[shards.size()];
+            this.remaining = shards.size();
+        }
+
+        String requestOf(Shard shard) {
+            return "PART_GRID_" + shard.from + "_" + shard.to + ";" + body;
+        }
+
+        synchronized void workerStarted() {
+            workers++;
+        }
+
+        synchronized void workerEnded() {
+            workers--;
+            notifyAll();
+        }
+
+        // Returns the next shard for a peer. While the other peers compute, it waits in case one of their shards is reassigned;
+        // it returns null once every shard is computed or the computation stops.
+        synchronized Shard next() {
+            while (!stopped && remaining > 0) {
+                for (Shard shard : pending) {
+                    if (shard.attempts < MAX_ATTEMPTS) {
+                        pending.remove(shard);
+                        return shard;
+                    }
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    return null;
+                }
+            }
+            return null;
+        }
+
+        // Returns the next shard to compute on this server: one that failed too many times, or any once no peer is left.
+        // It waits while the peers compute, and returns null once every shard is computed or the token tells to stop.
+        synchronized Shard nextLocal(CancellationToken token) {
+            while (remaining > 0) {
+                if (token != null && token.shouldStop()) {
+                    return null;
+                }
+                for (Shard shard : pending) {
+                    if (shard.attempts >= MAX_ATTEMPTS || workers == 0) {
+                        pending.remove(shard);
+                        return shard;
+                    }
+                }
+                try {
+                    wait(POLL_INTERVAL);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    stop();
+                    return null;
+                }
+            }
+            return null;
+        }
+
+        synchronized void done(Shard shard, Aggregate aggregate) {
+            aggregates[shard.index] = aggregate;
+            remaining--;
+            notifyAll();
+        }
+
+        // Puts back a shard whose peer failed, to be sent to another peer
+        synchronized void failed(Shard shard) {
+            shard.attempts++;
+            pending.addFirst(shard);
+            notifyAll();
+        }
+
+        // Adds the connection to a peer, closed if the computation stops; returns false if it already stopped
+        synchronized boolean register(Socket socket) {
+            if (stopped) {
+                return false;
+            }
+            sockets.add(socket);
+            return true;
+        }
+
+        // Removes the connection to a peer; returns false if the computation stopped, which closed it
+        synchronized boolean unregister(Socket socket) {
+            sockets.remove(socket);
+            return !stopped;
+        }
+
+        synchronized boolean isStopped() {
+            return stopped;
+        }
+
+        // Stops the computation, resetting the connections so that the peers cancel their shards:
+        // a peer takes a plain close as the end of the requests and still computes the shard it received
+        synchronized void stop() {
+            stopped = true;
+            for (Socket socket : sockets) {
+                try {
+                    socket.setSoLinger(true, 0);
+                } catch (IOException e) {
+                    // The connection is already closed
+                }
+                closeQuietly(socket);
+            }
+            notifyAll();
+        }
+
+        // Merges the aggregates of the shards in point order, once they are all computed
+        synchronized Aggregate merge() {
+            Aggregate merged = aggregates[0];
+            for (int i = 1; i < aggregates.length; i++) {
+                merged = merged.merge(aggregates[i]);
+            }
+            return merged;
+        }
+
+        private static void closeQuietly(Socket socket) {
+            try {
+                if (socket != null) {
+                    socket.close();
+                }
+            } catch (IOException e) {
+                // The connection is not used any more
+            }
+        }
+    }
+}
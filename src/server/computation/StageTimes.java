@@ -0,0 +1,63 @@
+package server.computation;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// The StageTimes class collects the nanoseconds a request spends in each stage of its processing: parsing and compiling the expressions,
+// building the variable ranges, merging them into points and evaluating the expressions, with the number of points evaluated
+// and of instructions executed. Slices evaluated in parallel add their own times, so the merge and evaluation times are summed over the threads.
+// When points are evaluated one at a time (server.blockSize=1), generating them is counted as evaluation.
+public final class StageTimes {
+
+    private final AtomicLong parseTime = new AtomicLong();
+    private final AtomicLong rangeTime = new AtomicLong();
+    private final AtomicLong mergeTime = new AtomicLong();
+    private final AtomicLong evaluationTime = new AtomicLong();
+    private final AtomicLong points = new AtomicLong();
+    private final AtomicLong instructions = new AtomicLong();
+
+    public void addParseTime(long nanos) {
+        parseTime.addAndGet(nanos);
+    }
+
+    public void addRangeTime(long nanos) {
+        rangeTime.addAndGet(nanos);
+    }
+
+    public void addMergeTime(long nanos) {
+        mergeTime.addAndGet(nanos);
+    }
+
+    public void addEvaluationTime(long nanos) {
+        evaluationTime.addAndGet(nanos);
+    }
+
+    // This method counts points evaluated by a program of the given number of instructions
+    public void addPoints(long count, int instructionCount) {
+        points.addAndGet(count);
+        instructions.addAndGet(count * instructionCount);
+    }
+
+    public long getParseTime() {
+        return parseTime.get();
+    }
+
+    public long getRangeTime() {
+        return rangeTime.get();
+    }
+
+    public long getMergeTime() {
+        return mergeTime.get();
+    }
+
+    public long getEvaluationTime() {
+        return evaluationTime.get();
+    }
+
+    public long getPoints() {
+        return points.get();
+    }
+
+    public long getInstructions() {
+        return instructions.get();
+    }
+}
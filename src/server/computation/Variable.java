@@ -16,17 +16,13 @@ public class Variable extends Node {
     }
 
     @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        if (!super.equals(o)) return false;
-        Variable variable = (Variable) o;
-        return Objects.equals(name, variable.name);
+    protected boolean sameValue(Node other) {
+        return Objects.equals(name, ((Variable) other).name);
     }
 
     @Override
-    public int hashCode() {
-        return Objects.hash(super.hashCode(), name);
+    protected int valueHash() {
+        return Objects.hashCode(name);
     }
 
     @Override
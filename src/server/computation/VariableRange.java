@@ -0,0 +1,166 @@
+package server.computation;
+
+import server.exception.*;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+
+// The VariableRange class describes the values taken by a variable.
+// A range is usually stored lazily as (start, step, count) in units of the increment's last decimal digit, and the value at index k
+// is computed directly; ranges that cannot be described exactly this way keep their values in a primitive array.
+public class VariableRange {
+
+    // Ranges whose values, in units of the last decimal digit, stay below this bound are computed arithmetically.
+    // Below it, rounding the double sum of a value and the increment to the increment's decimals always gives the exact decimal sum.
+    private static final long MAX_UNITS = 1L << 48;
+    // The largest number of decimals handled arithmetically, so that the power of ten is an exact double
+    private static final int MAX_DECIMALS = 15;
+
+    private final String name;
+    private final int size;
+    // The arithmetic description of the range: the value at index k is (startUnits + k * stepUnits) / scale
+    private final long startUnits;
+    private final long stepUnits;
+    private final double scale;
+    // The values of the range, when it is not described arithmetically
+    private final double[] values;
+
+    public VariableRange(String name, double[] values) {
+        this.name = name;
+        this.size = values.length;
+        this.values = values;
+        this.startUnits = 0;
+        this.stepUnits = 0;
+        this.scale = 1;
+    }
+
+    private VariableRange(String name, long startUnits, long stepUnits, double scale, int size) {
+        this.name = name;
+        this.size = size;
+        this.values = null;
+        this.startUnits = startUnits;
+        this.stepUnits = stepUnits;
+        this.scale = scale;
+    }
+
+    // This method creates the range of the values from start to end with the given increment.
+    // Each value is rounded to the number of decimals of the increment, and the next one is obtained by adding the increment to the rounded value,
+    // as long as the sum does not exceed end.
+    public static VariableRange of(String name, double start, double increment, double end) throws InvalidVariableRangeException {
+        // The range is empty if start is already past end
+        if (!(start <= end)) {
+            return new VariableRange(name, new double[0]);
+        }
+        // A NaN increment ends the loop after the first value, which is formatted without decimals
+        if (Double.isNaN(increment)) {
+            return new VariableRange(name, enumerate(start, increment, end, getSignificantDigits(increment)));
+        }
+        if (!(increment > 0) || Double.isInfinite(increment) || Double.isInfinite(start)) {
+            throw new InvalidVariableRangeException("ERR; (InvalidVariableRangeException) Invalid variable range increment");
+        }
+
+        int decimals = getSignificantDigits(increment);
+        BigDecimal step = BigDecimal.valueOf(increment);
+        // The increment must be a whole number of units of its last decimal digit
+        if (decimals <= MAX_DECIMALS && step.stripTrailingZeros().scale() <= decimals
+                && step.movePointRight(decimals).compareTo(BigDecimal.valueOf(MAX_UNITS)) < 0) {
+            long stepUnits = step.movePointRight(decimals).longValueExact();
+            // Values are rounded half-up from their shortest decimal representation, as String.format does
+            BigDecimal first = BigDecimal.valueOf(start).setScale(decimals, RoundingMode.HALF_UP);
+            if (first.precision() <= 18 && Math.abs(first.unscaledValue().longValue()) < MAX_UNITS) {
+                long startUnits = first.unscaledValue().longValue();
+                double scale = Math.pow(10, decimals);
+                double firstValue = startUnits / scale;
+
+                // Estimates the number of values, then adjusts it so that exactly the values whose previous value plus the increment
+                // does not exceed end are included
+                double estimate = Math.floor((end - firstValue) / increment) + 1;
+                if (estimate >= Integer.MAX_VALUE) {
+                    throw new InvalidVariableRangeException("ERR; (InvalidVariableRangeException) Too many values in variable range");
+                }
+                int size = (int) Math.max(estimate, 1);
+                if (Math.abs(startUnits + (size + 1.0) * stepUnits) < MAX_UNITS) {
+                    VariableRange range = new VariableRange(name, startUnits, stepUnits, scale, size);
+                    while (size > 1 && !(range.valueAt(size - 2) + increment <= end)) {
+                        size--;
+                    }
+                    while (range.valueAt(size - 1) + increment <= end) {
+                        size++;
+                    }
+                    return new VariableRange(name, startUnits, stepUnits, scale, size);
+                }
+            }
+        }
+        return new VariableRange(name, enumerate(start, increment, end, decimals));
+    }
+
+    // This method generates the values one by one, formatting each of them with the decimals of the increment
+    private static double[] enumerate(double start, double increment, double end, int decimals) throws InvalidVariableRangeException {
+        // Create a format string for the increment using the number of significant digits after the decimal point.
+        String format = "%." + decimals + "f";
+        double[] ranges = new double[16];
+        int size = 0;
+
+        // Create a loop to generate the range values from start to end, incrementing by the increment value.
+        for (double i = start; i <= end; i += increment) {
+            // Format the value to the desired number of significant digits and replace any comma with a dot.
+            String formattedValue = String.format(format, i);
+            formattedValue = formattedValue.replace(",", ".");
+
+            // Parse the formatted string as a double value. If the value is negative zero, set it to positive zero.
+            double truncated = Double.parseDouble(formattedValue);
+            if (truncated == -0.0) {
+                truncated = 0.0;
+            }
+
+            // If rounding brings the value back, the increment is too small for its decimals and the range would never end
+            if (size > 0 && truncated <= ranges[size - 1]) {
+                throw new InvalidVariableRangeException("ERR; (InvalidVariableRangeException) Invalid variable range increment");
+            }
+            if (size == Integer.MAX_VALUE - 8) {
+                throw new InvalidVariableRangeException("ERR; (InvalidVariableRangeException) Too many values in variable range");
+            }
+
+            // Adjust the loop counter to match the truncated value and add it to the ranges list.
+            i=truncated;
+            if (size == ranges.length) {
+                ranges = Arrays.copyOf(ranges, (int) Math.min(size * 2L, Integer.MAX_VALUE - 8));
+            }
+            ranges[size++] = truncated;
+        }
+        return Arrays.copyOf(ranges, size);
+    }
+
+    // This method is responsible for finding the number of significant digits after the decimal point in a given number.
+    public static int getSignificantDigits (double number){
+        String numberString = Double.toString(number);
+
+        // Find the index of the decimal point.
+        int indexPoint = numberString.indexOf(".");
+        int digitsAfterComma = 0;
+
+        // If there is a decimal point, calculate the number of digits after it.
+        if (indexPoint >= 0) {
+            digitsAfterComma = numberString.length() - indexPoint - 1;
+        }
+        return digitsAfterComma;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // Returns the number of values of the range
+    public int size() {
+        return size;
+    }
+
+    // Returns the value at the given index of the range
+    public double valueAt(int index) {
+        if (values != null) {
+            return values[index];
+        }
+        return (startUnits + index * stepUnits) / scale;
+    }
+}
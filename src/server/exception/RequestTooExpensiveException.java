@@ -0,0 +1,8 @@
+package server.exception;
+
+public class RequestTooExpensiveException extends ComputationException {
+
+    public RequestTooExpensiveException(String message) {
+        super(message);
+    }
+}
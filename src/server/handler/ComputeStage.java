@@ -0,0 +1,62 @@
+package server.handler;
+
+import server.computation.AdmissionControl;
+import server.computation.DataComputation;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// The ComputeStage class runs the CPU-heavy part of the requests on a bounded pool of platform threads.
+// The threads serving the connections only wait for the results, so when they are virtual threads
+// a long computation does not monopolise the carrier threads shared by all the connections.
+// The expensive computations run in the lane of AdmissionControl instead, so that they wait for their turn without holding a thread of the pool.
+public class ComputeStage {
+
+    private final ExecutorService pool;
+
+    public ComputeStage(ExecutorService pool) {
+        this.pool = pool;
+    }
+
+    // This method runs the computation of the given estimated cost and waits for its result,
+    // or returns interrupted if the calling thread is interrupted
+    public <T> T compute(Callable<T> computation, T interrupted, long cost) {
+        return await(submit(computation, cost), interrupted);
+    }
+
+    // This method starts the computation of the given estimated cost, on the pool or in the lane of the expensive ones, without waiting for it
+    public <T> Future<T> submit(Callable<T> computation, long cost) {
+        AdmissionControl admissionControl = DataComputation.getAdmissionControl();
+        if (admissionControl.isExpensive(cost)) {
+            return admissionControl.submitExpensive(cost, computation);
+        }
+        return pool.submit(computation);
+    }
+
+    // This method waits for the result of a computation started by submit
+    public String await(Future<String> result) {
+        return await(result, "ERR; (InterruptedException) Computation interrupted");
+    }
+
+    // This method waits for the result of a computation started by submit, and returns interrupted if the calling thread is interrupted
+    public <T> T await(Future<T> result, T interrupted) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            return interrupted;
+        } catch (ExecutionException e) {
+            // Failures of the computation are raised on the calling thread, as if it had run the computation itself
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package server.handler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// The ConnectionWatcher class looks at the input of the blocking connections while their requests are computed,
+// from threads of its own, and cancels their computations once their client is gone or asks to end the connection.
+// A probe reads the input already received without waiting, but waits up to a millisecond on a connection with no new input,
+// to see whether it was closed or reset; the connections are therefore probed by PROBE_THREADS threads at the same time.
+// The computations only read the flag of their token: no socket is read on a computation thread, or while a shared lock such as
+// the one of AdmissionControl is held.
+public class ConnectionWatcher {
+    private static final Logger LOGGER = Logger.getLogger(ConnectionWatcher.class.getName());
+
+    // The time in milliseconds between two looks at the connections
+    private static final long PROBE_INTERVAL = 100;
+    // The number of connections probed at the same time
+    private static final int PROBE_THREADS = Math.max(1, Integer.getInteger("server.probeThreads", 32));
+
+    // The watcher shared by all the connections, whose thread starts with the first connection watched
+    private static final ConnectionWatcher watcher = new ConnectionWatcher();
+
+    // The connections whose requests are being computed
+    private final Set<WorkerThread> watched = ConcurrentHashMap.newKeySet();
+    private Thread thread;
+    private final ExecutorService probes = Executors.newFixedThreadPool(PROBE_THREADS, runnable -> {
+        Thread probe = new Thread(runnable, "connection-probe");
+        probe.setDaemon(true);
+        return probe;
+    });
+
+    public static ConnectionWatcher getWatcher() {
+        return watcher;
+    }
+
+    // This method watches the connection until unwatch is called
+    public void watch(WorkerThread connection) {
+        watched.add(connection);
+        start();
+    }
+
+    public void unwatch(WorkerThread connection) {
+        watched.remove(connection);
+    }
+
+    // This method starts the thread of the watcher, unless it is running
+    private synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(this::run, "connection-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // The loop of the watcher, which probes every connection watched once per PROBE_INTERVAL, and waits for the probes of a pass
+    // before the next one
+    private void run() {
+        List<Future<?>> pass = new ArrayList<>();
+        while (true) {
+            try {
+                Thread.sleep(PROBE_INTERVAL);
+                for (WorkerThread connection : watched) {
+                    pass.add(probes.submit(connection::probe));
+                }
+                for (Future<?> probe : pass) {
+                    try {
+                        probe.get();
+                    } catch (ExecutionException e) {
+                        LOGGER.log(Level.WARNING, "Could not probe a connection: ", e.getCause());
+                    }
+                }
+                pass.clear();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package server.handler;
+import server.statistics.*;
+import server.request.*;
+import server.computation.CancellationToken;
+import server.computation.ComputationOptions;
+import server.computation.ComputationResult;
+import server.computation.DataComputation;
+import server.computation.ShardCoordinator;
+import server.computation.StageTimes;
+import server.exception.*;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+// The RequestProcessor class turns a request line of a client into the response line, or a binary request frame into the response frame,
+// whatever the connection handling is.
+// It keeps no state between requests, so the requests of a connection can be processed concurrently.
+public class RequestProcessor {
+    // Assume that stats is shared across all connections
+    private static ServerStatistics stats = new ServerStatistics();
+    // The time spent in each stage by the computations, shared across all connections too
+    private static StageMetrics stageMetrics = new StageMetrics();
+    // The connections opened and closed by the clients, counted by the front ends
+    private static ConnectionStatistics connectionStats = new ConnectionStatistics();
+    // The longest time in milliseconds a computation may run, 0 for no limit; requests may ask for a shorter one
+    private static final long REQUEST_TIMEOUT = Long.getLong("server.requestTimeout", 0L);
+    // True if the computations of a connection stop once the client closes it; false for clients closing only their output,
+    // which still wait for the responses
+    static final boolean CANCEL_ON_CLOSE = Boolean.parseBoolean(System.getProperty("server.cancelOnClose", "true"));
+
+    // The result of a computation whose thread was interrupted while waiting for the compute stage
+    private static final ComputationResult INTERRUPTED = ComputationResult.error("ERR; (InterruptedException) Computation interrupted");
+
+    private RequestParser reqParser = new RequestParser();
+    // The stage running the computations, or null to run them on the calling thread
+    private final ComputeStage computeStage;
+    // The coordinator splitting large grids into shards computed by its peers, or null to compute everything here
+    private final ShardCoordinator coordinator;
+    // True if the client may send the shards of a coordinator
+    private boolean acceptsShards = true;
+
+    public RequestProcessor() {
+        this(null);
+    }
+
+    public RequestProcessor(ComputeStage computeStage) {
+        this(computeStage, null);
+    }
+
+    public RequestProcessor(ComputeStage computeStage, ShardCoordinator coordinator) {
+        this.computeStage = computeStage;
+        this.coordinator = coordinator;
+    }
+
+    // This method tells whether the shards sent by the client are computed, which depends on the address of the client:
+    // they are answered with an error unless it is allowed to coordinate this server
+    public void acceptShardsFrom(InetAddress client) {
+        acceptsShards = ShardCoordinator.acceptsShardsFrom(client);
+    }
+
+    static ConnectionStatistics getConnectionStatistics() {
+        return connectionStats;
+    }
+
+    // This method processes a request line and returns the response to send to the client,
+    // or null if the client wants to end the connection
+    public String process(String requestString) {
+        return process(requestString, null);
+    }
+
+    // This method processes a request line as above; its computation stops with an error once the token of the connection,
+    // if it is not null, is cancelled, or once its timeout expires
+    public String process(String requestString, CancellationToken connectionToken) {
+        long startTime = System.nanoTime();
+        String statRequest;
+
+        try {
+            // Check if the client wants to end the connection
+            if (requestString.startsWith("BYE")) {
+                statRequest = reqParser.parseQuitRequest(requestString);
+                if (statRequest == null)
+                    return null; // Ends the connection.
+            }
+            // Check if the client is requesting server stats
+            else if (requestString.startsWith("STAT")) {
+                statRequest = reqParser.parseStatRequest(requestString,stats,stageMetrics,connectionStats);
+            }
+            // Else, the client is requesting a computation
+            else {
+                ComputationRequest compRequest = reqParser.parseComputationRequest(requestString);
+                statRequest = compute(compRequest, connectionToken).toString();
+            }
+
+            // If an error occurred during the computation, send the error message to the client
+            if (statRequest.startsWith("ERR;")) {
+                return statRequest;
+            }
+            else{
+                // Calculate the processing time and update the server stats
+                long processingTime = System.nanoTime() - startTime;
+                stats.updateStats(processingTime);
+
+                // Send a success message to the client, with the processing time in seconds to the millisecond
+                return "OK;" + (processingTime / 1_000_000) / 1000.0 + ";"+statRequest;
+            }
+        }
+        // If an exception occurred while parsing the request or performing the computation, send the error message to the client
+        catch (InvalidRequestException | InvalidVariableRangeException e) {
+            return e.getMessage();
+        }
+    }
+
+    // This method processes a request frame of the binary protocol, positioned at its type byte, and returns the response frame to send
+    // to the client, or null if the client wants to end the connection. The requests and responses are the same as with the text protocol.
+    public ByteBuffer process(ByteBuffer request, CancellationToken connectionToken) {
+        long startTime = System.nanoTime();
+        try {
+            byte type = BinaryProtocol.typeOf(request);
+            if (type == BinaryProtocol.BYE) {
+                return null; // Ends the connection.
+            }
+            if (type == BinaryProtocol.STAT) {
+                String statistic = reqParser.parseStatRequest(BinaryProtocol.decodeStatRequest(request), stats, stageMetrics, connectionStats);
+                long processingTime = System.nanoTime() - startTime;
+                stats.updateStats(processingTime);
+                return BinaryProtocol.encodeText(processingTime, statistic);
+            }
+            ComputationResult result = compute(BinaryProtocol.decodeComputationRequest(request), connectionToken);
+            if (result.isError()) {
+                return BinaryProtocol.encodeError(result.getError());
+            }
+            long processingTime = System.nanoTime() - startTime;
+            stats.updateStats(processingTime);
+            return BinaryProtocol.encodeResult(processingTime, result);
+        }
+        catch (InvalidRequestException | InvalidVariableRangeException e) {
+            return BinaryProtocol.encodeError(e.getMessage());
+        }
+    }
+
+    // This method computes the result of a computation request, on the compute stage if there is one,
+    // and records the time spent in each stage when the stage metrics are enabled
+    private ComputationResult compute(ComputationRequest compRequest, CancellationToken connectionToken) throws InvalidVariableRangeException {
+        // Instantiate a new DataComputation object for each request
+        DataComputation dataComp = new DataComputation();
+        // The stages are only timed when the stage metrics are enabled
+        StageTimes times = StageMetrics.ENABLED ? new StageTimes() : null;
+        CancellationToken token = new CancellationToken(connectionToken, timeoutOf(compRequest));
+        try {
+            long rangeStartTime = times != null ? System.nanoTime() : 0;
+            addVariableRanges(dataComp, compRequest);
+            if (times != null) {
+                times.addRangeTime(System.nanoTime() - rangeStartTime);
+            }
+            ComputationOptions options = new ComputationOptions(times, token, coordinator);
+            if (computeStage == null) {
+                return compute(dataComp, compRequest, options);
+            }
+            return computeStage.compute(() -> compute(dataComp, compRequest, options), INTERRUPTED, estimateCost(dataComp, compRequest));
+        } finally {
+            if (times != null) {
+                stageMetrics.record(compRequest.getComputationKind(), compRequest.getValuesKind(), times);
+            }
+        }
+    }
+
+    private static void addVariableRanges(DataComputation dataComp, ComputationRequest compRequest) throws InvalidVariableRangeException {
+        String[] names = compRequest.getVariableNames();
+        if (names != null) {
+            // The ranges of a binary request are already parsed
+            double[] bounds = compRequest.getRangeBounds();
+            for (int i = 0; i < names.length; i++) {
+                dataComp.addVariableRange(names[i], bounds[3 * i], bounds[3 * i + 1], bounds[3 * i + 2]);
+            }
+        } else {
+            String[] variables = compRequest.getVariable().split(",");
+            for (String variable : variables) {
+                dataComp.addVariableRange(variable);
+            }
+        }
+    }
+
+    // This method estimates the cost of the computation of a request line, as the admission control counts it, so that
+    // the expensive ones are computed in their own lane. It is 0 for the other requests, and for the invalid ones.
+    public long estimateCost(String requestString) {
+        if (requestString.startsWith("BYE") || requestString.startsWith("STAT")) {
+            return 0;
+        }
+        try {
+            return estimateCost(reqParser.parseComputationRequest(requestString));
+        } catch (InvalidRequestException e) {
+            return 0;
+        }
+    }
+
+    // This method estimates the cost of the computation of a request frame, as above
+    public long estimateCost(ByteBuffer request) {
+        try {
+            if (BinaryProtocol.typeOf(request) != BinaryProtocol.COMPUTE) {
+                return 0;
+            }
+            return estimateCost(BinaryProtocol.decodeComputationRequest(request));
+        } catch (InvalidRequestException e) {
+            return 0;
+        }
+    }
+
+    private static long estimateCost(ComputationRequest compRequest) {
+        DataComputation dataComp = new DataComputation();
+        try {
+            addVariableRanges(dataComp, compRequest);
+        } catch (InvalidVariableRangeException | IllegalArgumentException e) {
+            return 0;
+        }
+        return estimateCost(dataComp, compRequest);
+    }
+
+    // This method estimates the cost of a request whose ranges are added to dataComp; counting the points costs nothing
+    private static long estimateCost(DataComputation dataComp, ComputationRequest compRequest) {
+        if (compRequest.getComputationKind().equals("COUNT")) {
+            return 0;
+        }
+        try {
+            long points = compRequest.isShard() ? Math.max(0, compRequest.getShardEnd() - compRequest.getShardStart())
+                    : dataComp.countPoints(compRequest.getValuesKind());
+            return DataComputation.estimateCost(compRequest.getExpression(), points);
+        } catch (IllegalArgumentException e) {
+            return 0;
+        }
+    }
+
+    // This method computes a request whose ranges are added to dataComp: the partial aggregate of a shard sent by a coordinator,
+    // or the result of a whole computation, sharded across the peers of this server if it coordinates some
+    private ComputationResult compute(DataComputation dataComp, ComputationRequest compRequest, ComputationOptions options) {
+        if (compRequest.isShard()) {
+            if (!acceptsShards) {
+                return ComputationResult.error("ERR; (InvalidRequestException) Shards are only accepted from the coordinators of this server");
+            }
+            return dataComp.computeShard(compRequest.getExpression(), compRequest.getValuesKind(), compRequest.getShardStart(),
+                    compRequest.getShardEnd(), options);
+        }
+        return dataComp.computeResult(compRequest.getExpression(), compRequest.getComputationKind(), compRequest.getValuesKind(), options);
+    }
+
+    // Returns the timeout of the computation of the request: the shorter of the server's and the request's, 0 if neither sets one
+    private static long timeoutOf(ComputationRequest request) {
+        if (REQUEST_TIMEOUT == 0 || request.getTimeout() == 0) {
+            return Math.max(REQUEST_TIMEOUT, request.getTimeout());
+        }
+        return Math.min(REQUEST_TIMEOUT, request.getTimeout());
+    }
+}
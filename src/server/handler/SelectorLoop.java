@@ -0,0 +1,415 @@
+package server.handler;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import server.computation.AdmissionControl;
+import server.computation.CancellationToken;
+import server.computation.DataComputation;
+import server.computation.ShardCoordinator;
+import server.request.BinaryProtocol;
+
+// The SelectorLoop class serves all the client connections from a single thread using non-blocking I/O.
+// Each connection has its own read and write buffers; only complete request lines, or request frames for the clients of the binary protocol,
+// are dispatched to the compute pool, so idle connections do not hold any thread.
+public class SelectorLoop implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger(SelectorLoop.class.getName());
+
+    // The size of the read buffer of each connection
+    private static final int BUFFER_SIZE = 8192;
+    // Connections sending a longer line than this are closed
+    private static final int MAX_LINE_LENGTH = 1 << 20;
+    // The largest number of responses handed over to the selector thread at once
+    private static final int MAX_BATCH_SIZE = 64;
+    // Requests and responses use the same charset and line separator as the blocking connections
+    private static final Charset CHARSET = Charset.defaultCharset();
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final ExecutorService computePool;
+    // The connections with responses to write, handed over to the selector thread by the compute pool
+    private final Queue<Connection> writable = new ConcurrentLinkedQueue<>();
+
+    // The coordinator sharding the large grids of the requests across its peers, or null to compute them on this server
+    private final ShardCoordinator coordinator;
+
+    public SelectorLoop(ServerSocketChannel serverChannel, ExecutorService computePool) throws IOException {
+        this(serverChannel, computePool, null);
+    }
+
+    public SelectorLoop(ServerSocketChannel serverChannel, ExecutorService computePool, ShardCoordinator coordinator) throws IOException {
+        this.serverChannel = serverChannel;
+        this.computePool = computePool;
+        this.coordinator = coordinator;
+        this.selector = Selector.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    @Override
+    public void run() {
+        try {
+            // The selector loop, runs until the server channel is closed
+            while (serverChannel.isOpen()) {
+                selector.select();
+
+                // Writes the responses handed over by the compute pool
+                Connection connection;
+                while ((connection = writable.poll()) != null) {
+                    connection.write();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    connection = (Connection) key.attachment();
+                    if (key.isWritable()) {
+                        connection.write();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        connection.read();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error in selector loop: ", e);
+        } finally {
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Could not close selector: ", e);
+            }
+        }
+    }
+
+    // This method closes the server channel and wakes up the selector, so that the loop ends
+    public void stop() {
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not close server channel: ", e);
+        }
+        selector.wakeup();
+    }
+
+    // This method accepts a new client connection and registers it for reading
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        // Connections are counted rather than logged, as clients may reconnect at high rates
+        RequestProcessor.getConnectionStatistics().connected();
+        LOGGER.log(Level.FINE, "Client connected: {0}", connection.address);
+    }
+
+    // The Connection class holds the state of a client connection: the bytes of the line or frame being read,
+    // the complete requests waiting to be processed and the responses waiting to be written
+    private class Connection {
+        private final SocketChannel channel;
+        private final InetAddress address;
+        private SelectionKey key;
+        private final RequestProcessor processor = new RequestProcessor(null, coordinator);
+        // Cancels the computations of the connection once the client asks to end it or closes it, or once the connection is closed
+        private final CancellationToken token = new CancellationToken();
+
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private byte[] line = new byte[256];
+        private int lineLength = 0;
+        private boolean lastWasCarriageReturn = false;
+        // The frame being read from a client of the binary protocol, once its length is known, and the number of its bytes read
+        private byte[] frame;
+        private int frameLength = 0;
+        // Set by the first byte received: true if the client speaks the binary protocol
+        private boolean negotiated = false;
+        private volatile boolean binary = false;
+
+        // The bytes of the complete request lines, or the complete request frames without their length
+        private final Queue<ByteBuffer> requests = new ConcurrentLinkedQueue<>();
+        private final Queue<ByteBuffer> responses = new ConcurrentLinkedQueue<>();
+        // True while a compute task is processing the requests of this connection
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        // True once the client asked to end the connection, or the processing of a request failed
+        private volatile boolean closing = false;
+        // True once the client closed its side of the connection: the requests received are still processed and answered
+        private volatile boolean inputEnded = false;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.address = channel.socket().getInetAddress();
+            processor.acceptShardsFrom(address);
+        }
+
+        // This method reads the available bytes and splits them into requests
+        void read() {
+            try {
+                if (channel.read(readBuffer) < 0) {
+                    endInput();
+                    return;
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Worker thread error: ", e);
+                close();
+                return;
+            }
+            readBuffer.flip();
+            // The first byte of a binary client cannot start a request line
+            if (!negotiated && readBuffer.hasRemaining()) {
+                negotiated = true;
+                binary = readBuffer.get(readBuffer.position()) == (byte) BinaryProtocol.MAGIC;
+                if (binary) {
+                    readBuffer.get();
+                }
+            }
+            if (!(binary ? readFrames() : readLines())) {
+                return;
+            }
+            readBuffer.clear();
+            schedule();
+        }
+
+        // This method stops reading once the client closed its side of the connection. The computations in progress are cancelled,
+        // unless RequestProcessor.CANCEL_ON_CLOSE is false for clients closing only their output: the requests already received
+        // are then processed and their responses written before the connection is closed.
+        // As BufferedReader.readLine does, a last line without terminator is a request too.
+        private void endInput() {
+            inputEnded = true;
+            if (RequestProcessor.CANCEL_ON_CLOSE) {
+                token.cancel();
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            if (!binary && lineLength > 0) {
+                requests.add(ByteBuffer.wrap(Arrays.copyOf(line, lineLength)));
+                lineLength = 0;
+            }
+            schedule();
+            if (isDone()) {
+                write();
+            }
+        }
+
+        // Returns true once the connection can be closed after its pending responses are written:
+        // the client asked to end it, or closed its side and all its requests are processed
+        private boolean isDone() {
+            return (closing || inputEnded && requests.isEmpty()) && !scheduled.get();
+        }
+
+        // Returns the operations the selector waits for besides writing: reading, until the client closed its side
+        private int readInterest() {
+            return inputEnded ? 0 : SelectionKey.OP_READ;
+        }
+
+        // This method splits the bytes read into request lines, terminated as BufferedReader.readLine expects.
+        // It returns false if the connection was closed.
+        private boolean readLines() {
+            while (readBuffer.hasRemaining()) {
+                byte b = readBuffer.get();
+                if (b == '\n' && lastWasCarriageReturn) {
+                    lastWasCarriageReturn = false;
+                    continue;
+                }
+                lastWasCarriageReturn = b == '\r';
+                if (b == '\n' || b == '\r') {
+                    if (lineLength == 3 && line[0] == 'B' && line[1] == 'Y' && line[2] == 'E') {
+                        token.cancel();
+                    }
+                    requests.add(ByteBuffer.wrap(Arrays.copyOf(line, lineLength)));
+                    lineLength = 0;
+                } else {
+                    if (lineLength == MAX_LINE_LENGTH) {
+                        LOGGER.log(Level.WARNING, "Request line too long from: {0}", address);
+                        close();
+                        return false;
+                    }
+                    if (lineLength == line.length) {
+                        line = Arrays.copyOf(line, line.length * 2);
+                    }
+                    line[lineLength++] = b;
+                }
+            }
+            return true;
+        }
+
+        // This method splits the bytes read into request frames, the first four bytes of a frame giving the length of the rest.
+        // It returns false if the connection was closed.
+        private boolean readFrames() {
+            while (readBuffer.hasRemaining()) {
+                if (frame == null) {
+                    // The length of the next frame is gathered in the line buffer
+                    while (lineLength < 4 && readBuffer.hasRemaining()) {
+                        line[lineLength++] = readBuffer.get();
+                    }
+                    if (lineLength < 4) {
+                        break;
+                    }
+                    int length = ByteBuffer.wrap(line, 0, 4).getInt();
+                    lineLength = 0;
+                    if (length < 1 || length > BinaryProtocol.MAX_FRAME_LENGTH) {
+                        LOGGER.log(Level.WARNING, "Invalid request frame length from: {0}", address);
+                        close();
+                        return false;
+                    }
+                    frame = new byte[length];
+                    frameLength = 0;
+                }
+                int count = Math.min(readBuffer.remaining(), frame.length - frameLength);
+                readBuffer.get(frame, frameLength, count);
+                frameLength += count;
+                if (frameLength == frame.length) {
+                    if (frame[0] == BinaryProtocol.BYE) {
+                        token.cancel();
+                    }
+                    requests.add(ByteBuffer.wrap(frame));
+                    frame = null;
+                }
+            }
+            return true;
+        }
+
+        // This method dispatches the pending requests to the compute pool, unless they are already being processed
+        private void schedule() {
+            if (!closing && !requests.isEmpty() && scheduled.compareAndSet(false, true)) {
+                computePool.execute(() -> process(false));
+            }
+        }
+
+        // This method runs on the compute pool, or in the lane of the expensive requests, and processes the pending requests in order,
+        // one at a time. An expensive request moves the processing to the lane, so that it waits for its turn without holding a thread
+        // of the pool, and a cheap one moves it back to the pool.
+        private void process(boolean inLane) {
+            AdmissionControl admissionControl = DataComputation.getAdmissionControl();
+            long movedCost = -1;
+            try {
+                ByteBuffer request;
+                int batched = 0;
+                while (!closing && (request = requests.peek()) != null) {
+                    long cost = binary ? processor.estimateCost(request) : processor.estimateCost(new String(request.array(), CHARSET));
+                    if (admissionControl.isExpensive(cost) != inLane) {
+                        movedCost = cost;
+                        break;
+                    }
+                    requests.poll();
+                    ByteBuffer response = binary ? processor.process(request, token) : processLine(request);
+                    if (response == null) {
+                        closing = true; // The client wants to end the connection.
+                    } else {
+                        responses.add(response);
+                        // The responses of the requests received together are handed over together, to be written with a single system call
+                        if (++batched == MAX_BATCH_SIZE || requests.isEmpty()) {
+                            batched = 0;
+                            writable.add(this);
+                            selector.wakeup();
+                        }
+                    }
+                }
+            } catch (RuntimeException | Error e) {
+                // The connection is closed rather than left waiting for a response that will never come
+                LOGGER.log(Level.SEVERE, "Worker thread error: ", e);
+                closing = true;
+                movedCost = -1;
+            } finally {
+                if (movedCost < 0) {
+                    scheduled.set(false);
+                }
+            }
+            if (movedCost >= 0) {
+                // The responses already computed are written while the next request waits for its thread
+                if (!responses.isEmpty()) {
+                    writable.add(this);
+                    selector.wakeup();
+                }
+                if (inLane) {
+                    computePool.execute(() -> process(false));
+                } else {
+                    admissionControl.executeExpensive(movedCost, () -> process(true));
+                }
+            } else if (closing || inputEnded && requests.isEmpty()) {
+                // Lets the selector thread close the connection once the responses are written
+                writable.add(this);
+                selector.wakeup();
+            } else {
+                // Requests may have arrived after the loop ended
+                schedule();
+            }
+        }
+
+        // This method processes a request line and returns the encoded response line, or null if the client wants to end the connection
+        private ByteBuffer processLine(ByteBuffer request) {
+            String response = processor.process(new String(request.array(), CHARSET), token);
+            return response == null ? null : CHARSET.encode(response + LINE_SEPARATOR);
+        }
+
+        // This method writes as many pending responses as the socket accepts, and waits for the socket to be writable for the rest.
+        // All the pending responses are written with a single gathering write.
+        void write() {
+            if (!channel.isOpen()) {
+                return;
+            }
+            try {
+                while (!responses.isEmpty()) {
+                    // Only this thread removes responses, so the snapshot starts with the head of the queue
+                    ByteBuffer[] pending = responses.toArray(new ByteBuffer[0]);
+                    channel.write(pending);
+                    for (ByteBuffer response : pending) {
+                        if (response.hasRemaining()) {
+                            key.interestOps(readInterest() | SelectionKey.OP_WRITE);
+                            return;
+                        }
+                        responses.poll();
+                    }
+                }
+                key.interestOps(readInterest());
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Worker thread error: ", e);
+                close();
+                return;
+            }
+            // Once all the responses are written, ends the connection if the client asked to or has no more requests
+            if (isDone()) {
+                close();
+            }
+        }
+
+        // This method closes the connection
+        private void close() {
+            closing = true;
+            token.cancel();
+            key.cancel();
+            if (!channel.isOpen()) {
+                return;
+            }
+            RequestProcessor.getConnectionStatistics().disconnected();
+            try {
+                channel.close();
+                LOGGER.log(Level.FINE, "Client disconnected: {0}", address);
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Could not close client socket: ", e);
+            }
+        }
+    }
+}
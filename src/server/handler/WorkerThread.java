@@ -1,98 +1,352 @@
 package server.handler;
-import server.statistics.*;
-import server.request.*;
-import server.computation.DataComputation;
-import server.exception.*;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import server.computation.CancellationToken;
+import server.computation.ShardCoordinator;
+import server.request.BinaryProtocol;
 
-// Each WorkerThread represents a connection with a client
+// Each WorkerThread represents a connection with a client.
+// The client speaks the text protocol, or the binary protocol if the first byte it sends is BinaryProtocol.MAGIC.
+// The request lines or frames a client sends without waiting for the responses are read and processed as a batch,
+// and their responses are written in request order with a single flush.
+// While requests are computed, the ConnectionWatcher looks at the input of the client from time to time: the computations are cancelled
+// once the connection is reset, the client closes it or asks to end it.
 public class WorkerThread implements Runnable {
-    // Assume that stats is shared across all worker threads
-    private static ServerStatistics stats = new ServerStatistics();
     private static final Logger LOGGER = Logger.getLogger(WorkerThread.class.getName());
 
+    // The largest number of request lines or frames processed as a batch
+    private static final int MAX_BATCH_SIZE = 64;
+    // The largest number of characters or bytes of the input looked at while requests are computed
+    private static final int PROBE_LIMIT = 8192;
+    // The response frame of a computation whose thread was interrupted while waiting for the compute stage
+    private static final ByteBuffer INTERRUPTED = BinaryProtocol.encodeError("ERR; (InterruptedException) Computation interrupted");
+
     private Socket clientSocket;
-    private RequestParser reqParser = new RequestParser();
-    private DataComputation dataComp;
+    private RequestProcessor processor;
+    // The stage running the computations, or null if they are run by this thread
+    private final ComputeStage computeStage;
+    // The processor used by the computations of a batch running concurrently on the compute stage, which compute on their own thread
+    private final RequestProcessor concurrentProcessor;
+    // The input of the client, set while the connection is open: the lines of a text client or the frames of a binary one
+    private volatile BufferedReader in;
+    private volatile BufferedInputStream frames;
+    // Cancels the computations of the connection once the client is gone
+    private final CancellationToken token = new CancellationToken();
+    // True while the requests of a batch are processed, the only time the ConnectionWatcher may look at the input
+    private boolean watched = false;
+
     public WorkerThread(Socket clientSocket) {
+        this(clientSocket, null);
+    }
+
+    // The computations of the client's requests are run by the given compute stage, or by this thread if it is null
+    public WorkerThread(Socket clientSocket, ComputeStage computeStage) {
+        this(clientSocket, computeStage, null);
+    }
+
+    // The large grids of the client's requests are sharded across the peers of the coordinator, if it is not null
+    public WorkerThread(Socket clientSocket, ComputeStage computeStage, ShardCoordinator coordinator) {
         this.clientSocket = clientSocket;
-        LOGGER.log(Level.INFO, "Client connected: " + clientSocket.getInetAddress());
+        this.computeStage = computeStage;
+        this.processor = new RequestProcessor(computeStage, coordinator);
+        this.concurrentProcessor = new RequestProcessor(null, coordinator);
+        processor.acceptShardsFrom(clientSocket.getInetAddress());
+        concurrentProcessor.acceptShardsFrom(clientSocket.getInetAddress());
+        // Connections are counted rather than logged, as clients may reconnect at high rates
+        RequestProcessor.getConnectionStatistics().connected();
+        LOGGER.log(Level.FINE, "Client connected: {0}", clientSocket.getInetAddress());
     }
 
     @Override
     public void run() {
-        try (PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true);
-             BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()))) {
-
-            String requestString;
-            String statRequest;
-
-            // Continue reading from the client until the client closes the connection
-            while ((requestString = in.readLine()) != null) {
-                // Instantiate a new DataComputation object for each request
-                dataComp=new DataComputation();
-                long startTime = System.currentTimeMillis();
-
-                try {
-                    // Check if the client wants to end the connection
-                    if (requestString.startsWith("BYE")) {
-                        statRequest = reqParser.parseQuitRequest(requestString);
-                        if (statRequest == null)
-                            break; // Breaks the loop and ends the connection.
-                    }
-                    // Check if the client is requesting server stats
-                    else if (requestString.startsWith("STAT")) {
-                        statRequest = reqParser.parseStatRequest(requestString,stats);
-                    }
-                    // Else, the client is requesting a computation
-                    else {
-                        ComputationRequest compRequest = reqParser.parseComputationRequest(requestString);
-                        String[] variables = compRequest.getVariable().split(",");
-                        for (String variable : variables) {
-                            dataComp.addVariableRange(variable);
-                        }
-                        statRequest = dataComp.computeExpression(compRequest.getExpression(),compRequest.getComputationKind(), compRequest.getValuesKind());
-                    }
-
-                    // If an error occurred during the computation, send the error message to the client
-                    if (statRequest.startsWith("ERR;")) {
-                        // If there was a computation error, send the error message back to the client.
-                        out.println(statRequest);
-                    }
-                    else{
-                        // Calculate the processing time and update the server stats
-                        long processingTime = System.currentTimeMillis() - startTime;
-                        stats.updateStats(processingTime);
-
-                        // Send a success message to the client
-                        out.println("OK;" + processingTime / 1000.0 + ";"+statRequest);
-                    }
-                }
-                // If an exception occurred while parsing the request or performing the computation, send the error message to the client
-                catch (InvalidRequestException | InvalidVariableRangeException e) {
-                    out.println(e.getMessage());
-                }
+        try (OutputStream output = new BufferedOutputStream(clientSocket.getOutputStream());
+             BufferedInputStream input = new BufferedInputStream(clientSocket.getInputStream())) {
+            // The responses are flushed once per batch, so they do not need to be coalesced by Nagle's algorithm
+            clientSocket.setTcpNoDelay(true);
+            // The first byte of a binary client cannot start a request line; any other byte is left to be read as text
+            input.mark(1);
+            if (input.read() == BinaryProtocol.MAGIC) {
+                serveFrames(input, output);
+            } else {
+                input.reset();
+                serveLines(new BufferedReader(new InputStreamReader(input)), new PrintWriter(new BufferedWriter(new OutputStreamWriter(output))));
             }
 
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "Worker thread error: ", e);
         } finally {
+            token.cancel();
+            RequestProcessor.getConnectionStatistics().disconnected();
             // Always attempt to close the client socket when finished
             try {
                 if (clientSocket != null) {
                     clientSocket.close();
-                    LOGGER.log(Level.INFO, "Client disconnected: " + clientSocket.getInetAddress());
+                    LOGGER.log(Level.FINE, "Client disconnected: {0}", clientSocket.getInetAddress());
                 }
             } catch (IOException e) {
                 LOGGER.log(Level.SEVERE, "Could not close client socket: ", e);
             }
         }
     }
+
+    // This method serves a client of the text protocol
+    private void serveLines(BufferedReader in, PrintWriter out) throws IOException {
+        this.in = in;
+
+        List<String> batch = new ArrayList<>();
+        String requestString;
+        boolean open = true;
+
+        // Continue reading from the client until the client closes the connection or asks to end it
+        while (open && (requestString = in.readLine()) != null) {
+            // Adds the request lines already received, without waiting for more
+            batch.add(requestString);
+            while (batch.size() < MAX_BATCH_SIZE && in.ready() && (requestString = in.readLine()) != null) {
+                batch.add(requestString);
+            }
+            open = processBatch(batch, out);
+            out.flush();
+            batch.clear();
+        }
+    }
+
+    // This method serves a client of the binary protocol, whose frames are batched as the request lines are
+    private void serveFrames(BufferedInputStream input, OutputStream out) throws IOException {
+        this.frames = input;
+        DataInputStream in = new DataInputStream(input);
+
+        List<ByteBuffer> batch = new ArrayList<>();
+        ByteBuffer request;
+        boolean open = true;
+
+        while (open && (request = readFrame(in)) != null) {
+            batch.add(request);
+            while (batch.size() < MAX_BATCH_SIZE && in.available() > 0 && (request = readFrame(in)) != null) {
+                batch.add(request);
+            }
+            open = processFrames(batch, out);
+            out.flush();
+            batch.clear();
+        }
+    }
+
+    // This method reads the next request frame, without its length, or returns null once the client closed the connection
+    private static ByteBuffer readFrame(DataInputStream in) throws IOException {
+        int first = in.read();
+        if (first == -1) {
+            return null;
+        }
+        int length = first << 24 | in.readUnsignedByte() << 16 | in.readUnsignedShort();
+        if (length < 1 || length > BinaryProtocol.MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid request frame length: " + length);
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return ByteBuffer.wrap(frame);
+    }
+
+    // This method processes a batch of requests and writes their responses in order.
+    // With a compute stage, the computations run concurrently; statistics and quit requests wait for the requests before them,
+    // so they see the same state as if the requests were processed one at a time.
+    // It returns false if the client asked to end the connection, in which case the requests after that one are not processed,
+    // and the computations of the requests before it are cancelled.
+    private boolean processBatch(List<String> batch, PrintWriter out) {
+        if (batch.contains("BYE")) {
+            token.cancel();
+        }
+        startWatching();
+        try {
+            return processLines(batch, out);
+        } finally {
+            stopWatching();
+        }
+    }
+
+    // This method processes the requests of a batch, as described above
+    private boolean processLines(List<String> batch, PrintWriter out) {
+        List<Future<String>> pending = new ArrayList<>();
+        for (String request : batch) {
+            if (computeStage != null && !request.startsWith("BYE") && !request.startsWith("STAT")) {
+                pending.add(computeStage.submit(() -> concurrentProcessor.process(request, token), processor.estimateCost(request)));
+                continue;
+            }
+            writeResponses(pending, out);
+            String response = processor.process(request, token);
+            if (response == null) {
+                return false; // The client wants to end the connection.
+            }
+            out.println(response);
+        }
+        writeResponses(pending, out);
+        return true;
+    }
+
+    // This method waits for the computations started and writes their responses in order
+    private void writeResponses(List<Future<String>> pending, PrintWriter out) {
+        for (Future<String> response : pending) {
+            out.println(computeStage.await(response));
+        }
+        pending.clear();
+    }
+
+    // This method processes a batch of request frames and writes their response frames in order, as processBatch does with request lines
+    private boolean processFrames(List<ByteBuffer> batch, OutputStream out) throws IOException {
+        for (ByteBuffer request : batch) {
+            if (request.get(0) == BinaryProtocol.BYE) {
+                token.cancel();
+            }
+        }
+        startWatching();
+        try {
+            return processFrameBatch(batch, out);
+        } finally {
+            stopWatching();
+        }
+    }
+
+    // This method processes the request frames of a batch, as described above
+    private boolean processFrameBatch(List<ByteBuffer> batch, OutputStream out) throws IOException {
+        List<Future<ByteBuffer>> pending = new ArrayList<>();
+        for (ByteBuffer request : batch) {
+            if (computeStage != null && request.get(0) == BinaryProtocol.COMPUTE) {
+                pending.add(computeStage.submit(() -> concurrentProcessor.process(request, token), processor.estimateCost(request)));
+                continue;
+            }
+            writeFrames(pending, out);
+            ByteBuffer response = processor.process(request, token);
+            if (response == null) {
+                return false; // The client wants to end the connection.
+            }
+            writeFrame(response, out);
+        }
+        writeFrames(pending, out);
+        return true;
+    }
+
+    // This method waits for the computations started and writes their response frames in order
+    private void writeFrames(List<Future<ByteBuffer>> pending, OutputStream out) throws IOException {
+        for (Future<ByteBuffer> response : pending) {
+            writeFrame(computeStage.await(response, INTERRUPTED), out);
+        }
+        pending.clear();
+    }
+
+    // This method writes a response frame, leaving its position unchanged
+    private static void writeFrame(ByteBuffer frame, OutputStream out) throws IOException {
+        out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+    }
+
+    // This method lets the ConnectionWatcher look at the input while the requests of a batch are processed
+    private synchronized void startWatching() {
+        watched = true;
+        ConnectionWatcher.getWatcher().watch(this);
+    }
+
+    // This method ends the watch of the input; once it returns, no probe is reading it any more, so this thread can read the next batch
+    private synchronized void stopWatching() {
+        watched = false;
+        ConnectionWatcher.getWatcher().unwatch(this);
+    }
+
+    // This method is called by the ConnectionWatcher, and cancels the computations of the connection once the client is gone
+    synchronized void probe() {
+        if (watched && !token.isCancelled() && clientGone()) {
+            token.cancel();
+        }
+    }
+
+    // This method looks at the input received from the client while its requests are computed, without consuming it.
+    // It returns true if the connection was reset or the client sent a BYE line or frame, so that the computations stop.
+    // The end of the input stops them too, unless RequestProcessor.CANCEL_ON_CLOSE is false, as a client may close its output
+    // and still wait for the responses; it is only seen once the requests received before it were read.
+    private boolean clientGone() {
+        BufferedReader reader = in;
+        BufferedInputStream frameInput = frames;
+        if (reader == null && frameInput == null) {
+            return false;
+        }
+        try {
+            // The input already received is read without waiting
+            if (reader != null ? reader.ready() : frameInput.available() > 0) {
+                return reader != null ? linesEnd(reader) : framesEnd(frameInput);
+            }
+            // Otherwise waits at most a millisecond for the end of the input or a reset
+            clientSocket.setSoTimeout(1);
+            try {
+                return inputEnded(reader, frameInput) && RequestProcessor.CANCEL_ON_CLOSE;
+            } catch (SocketTimeoutException e) {
+                return false;
+            } finally {
+                clientSocket.setSoTimeout(0);
+            }
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    // This method reads the next character of the lines, or the next byte of the frames, and puts it back, and tells whether the input ended
+    private static boolean inputEnded(BufferedReader reader, BufferedInputStream input) throws IOException {
+        if (reader != null) {
+            reader.mark(1);
+            try {
+                return reader.read() == -1;
+            } finally {
+                reader.reset();
+            }
+        }
+        input.mark(1);
+        try {
+            return input.read() == -1;
+        } finally {
+            input.reset();
+        }
+    }
+
+    // This method reads the request lines already received and puts them back, and tells whether they hold a BYE line
+    private static boolean linesEnd(BufferedReader reader) throws IOException {
+        reader.mark(PROBE_LIMIT);
+        try {
+            StringBuilder received = new StringBuilder("\n");
+            int ch;
+            while ((ch = reader.read()) != -1) {
+                received.append((char) ch);
+                if (received.length() == PROBE_LIMIT || !reader.ready()) {
+                    break;
+                }
+            }
+            String lines = received.toString().replace("\r\n", "\n").replace('\r', '\n');
+            return lines.contains("\nBYE\n");
+        } finally {
+            reader.reset();
+        }
+    }
+
+    // This method reads the request frames already received and puts them back, and tells whether they hold a BYE frame
+    private static boolean framesEnd(BufferedInputStream input) throws IOException {
+        input.mark(PROBE_LIMIT);
+        try {
+            byte[] received = new byte[PROBE_LIMIT];
+            int length = input.read(received, 0, PROBE_LIMIT);
+            return length > 0 && BinaryProtocol.containsBye(received, length);
+        } finally {
+            input.reset();
+        }
+    }
 }
@@ -0,0 +1,166 @@
+package server.logging;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+// The AsyncLogHandler class takes the writing of the log records off the threads that log them.
+// Records are handed to a background thread through a bounded RingBuffer, and only that thread passes them to the delegate handlers,
+// such as the ConsoleHandler, which format and write them under a lock. When the buffer is full, records are dropped and counted instead of
+// blocking the server, and bursts of the same message are cut after BURST_LIMIT records per second: the records dropped or cut are
+// reported by a summary record at the end of the second.
+public class AsyncLogHandler extends Handler {
+
+    // The number of records waiting to be written, rounded up to a power of two
+    private static final int BUFFER_SIZE = Integer.getInteger("server.logBufferSize", 4096);
+    // The number of records of the same logger, level and message written per window; the others are only counted
+    private static final int BURST_LIMIT = Integer.getInteger("server.logBurstLimit", 10);
+    // The window over which bursts are counted, and after which they are summarised
+    private static final long WINDOW = TimeUnit.SECONDS.toNanos(1);
+    // How long the background thread waits for records once the buffer is empty
+    private static final long IDLE_WAIT = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final Handler[] delegates;
+    private final RingBuffer<LogRecord> buffer;
+    // The records dropped because the buffer was full, since the last summary
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+    private volatile boolean closed = false;
+
+    // The state of the background thread: the records of each message in the current window, and when the window started
+    private final Map<String, Burst> bursts = new HashMap<>();
+    private long windowStart = System.nanoTime();
+    // Formats the message of the last record of a burst in its summary
+    private final SimpleFormatter messageFormatter = new SimpleFormatter();
+
+    // The records of a message in the current window, and the last one of them
+    private static class Burst {
+        private int count;
+        private LogRecord last;
+    }
+
+    public AsyncLogHandler(Handler... delegates) {
+        this(BUFFER_SIZE, delegates);
+    }
+
+    public AsyncLogHandler(int bufferSize, Handler... delegates) {
+        this.delegates = delegates.clone();
+        this.buffer = new RingBuffer<>(bufferSize);
+        this.writer = new Thread(this::run, "async-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // This method moves the handlers of the root logger behind an AsyncLogHandler, so that no logging thread writes records itself
+    public static void install() {
+        Logger root = Logger.getLogger("");
+        Handler[] handlers = root.getHandlers();
+        for (Handler handler : handlers) {
+            root.removeHandler(handler);
+        }
+        root.addHandler(new AsyncLogHandler(handlers));
+    }
+
+    // This method hands the record to the background thread, or counts it as dropped if the buffer is full.
+    // The message is not formatted here, only the caller is looked up, as it is found from the stack of the logging thread.
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) {
+            return;
+        }
+        record.getSourceClassName();
+        if (!buffer.offer(record)) {
+            dropped.increment();
+        }
+    }
+
+    @Override
+    public void flush() {
+        for (Handler delegate : delegates) {
+            delegate.flush();
+        }
+    }
+
+    // This method writes the records still in the buffer and closes the delegate handlers
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.NANOSECONDS.toMillis(WINDOW));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Handler delegate : delegates) {
+            delegate.close();
+        }
+    }
+
+    // The loop of the background thread, which writes the records as they come and summarises the bursts once per window
+    private void run() {
+        while (!closed) {
+            if (!drain()) {
+                LockSupport.parkNanos(IDLE_WAIT);
+            }
+            if (System.nanoTime() - windowStart >= WINDOW) {
+                summarise();
+            }
+        }
+        drain();
+        summarise();
+    }
+
+    // This method writes the records in the buffer, and returns false if there was none
+    private boolean drain() {
+        LogRecord record;
+        boolean drained = false;
+        while ((record = buffer.poll()) != null) {
+            drained = true;
+            Burst burst = bursts.computeIfAbsent(record.getLoggerName() + ' ' + record.getLevel() + ' ' + record.getMessage(), key -> new Burst());
+            burst.last = record;
+            if (++burst.count <= BURST_LIMIT) {
+                write(record);
+            }
+        }
+        return drained;
+    }
+
+    // This method writes a summary of the records cut from the bursts and dropped in the window, and starts a new window
+    private void summarise() {
+        for (Burst burst : bursts.values()) {
+            if (burst.count > BURST_LIMIT) {
+                LogRecord summary = new LogRecord(burst.last.getLevel(), "{0} more records like this one were not written in the last second: {1}");
+                summary.setParameters(new Object[]{burst.count - BURST_LIMIT, messageFormatter.formatMessage(burst.last)});
+                summary.setLoggerName(burst.last.getLoggerName());
+                summary.setSourceClassName(burst.last.getSourceClassName());
+                summary.setSourceMethodName(burst.last.getSourceMethodName());
+                write(summary);
+            }
+        }
+        bursts.clear();
+        long droppedRecords = dropped.sumThenReset();
+        if (droppedRecords > 0) {
+            LogRecord summary = new LogRecord(Level.WARNING, "{0} log records were dropped because the log buffer was full");
+            summary.setParameters(new Object[]{droppedRecords});
+            summary.setLoggerName(AsyncLogHandler.class.getName());
+            summary.setSourceClassName(AsyncLogHandler.class.getName());
+            summary.setSourceMethodName("publish");
+            write(summary);
+        }
+        windowStart = System.nanoTime();
+    }
+
+    // This method passes a record to the delegate handlers, which format and write it
+    private void write(LogRecord record) {
+        for (Handler delegate : delegates) {
+            delegate.publish(record);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package server.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// The RingBuffer class is a bounded queue that any number of threads offer to without locking, and a single thread polls from.
+// Each slot has a sequence number telling whether it is free for the offer of a given position or holds the element of that position,
+// so that producers only contend on the CAS claiming a position, and a full buffer rejects the element instead of blocking.
+public class RingBuffer<T> {
+
+    private final AtomicReferenceArray<T> elements;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    // The position of the next offer, claimed by CAS, and the position of the next poll, only moved by the consumer
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    // The capacity is rounded up to a power of two
+    public RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    // This method adds the element, or returns false if the buffer is full
+    public boolean offer(T element) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long sequence = sequences.get(index);
+            if (sequence < position) {
+                // The slot still holds the element of the previous lap
+                return false;
+            }
+            if (sequence == position && tail.compareAndSet(position, position + 1)) {
+                elements.set(index, element);
+                // Publishes the element to the consumer
+                sequences.set(index, position + 1);
+                return true;
+            }
+        }
+    }
+
+    // This method removes the oldest element, or returns null if there is none; it must only be called by the consumer thread
+    public T poll() {
+        long position = head.get();
+        int index = (int) position & mask;
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+        T element = elements.get(index);
+        elements.set(index, null);
+        head.set(position + 1);
+        // Frees the slot for the offer of the next lap
+        sequences.set(index, position + mask + 1);
+        return element;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
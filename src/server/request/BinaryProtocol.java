@@ -0,0 +1,138 @@
+package server.request;
+
+import server.computation.ComputationResult;
+import server.exception.InvalidRequestException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// The BinaryProtocol class describes the binary framing of the requests and responses, an alternative to the text lines
+// for machine-to-machine traffic. A client selects it by sending MAGIC as the first byte of the connection, which cannot start a request line.
+// Every frame is the length of the rest of the frame as a 4-byte int, followed by a type byte and its fields, in big-endian order:
+// - COMPUTE: computation kind (byte: 0 MIN, 1 MAX, 2 AVG, 3 COUNT), values kind (byte: 0 GRID, 1 LIST), timeout in milliseconds (int, 0 for none),
+//   number of variables (unsigned short), then for each variable the length of its name (unsigned byte), its ASCII name and the start,
+//   increment and end of its range (doubles), and finally the expressions separated by ';' in UTF-8 up to the end of the frame;
+// - STAT: the name of the statistic, such as STAT_REQS, in ASCII up to the end of the frame;
+// - BYE: no field, the server closes the connection.
+// Responses are frames of the same kind: VALUE and COUNT hold the processing time in nanoseconds (long) and the double or long result,
+// TEXT the processing time and a UTF-8 text, ERROR the error message in UTF-8, as the text protocol would send it.
+public final class BinaryProtocol {
+
+    // The first byte sent by the clients of the binary protocol
+    public static final int MAGIC = 0xB1;
+    // Connections sending a longer frame than this are closed
+    public static final int MAX_FRAME_LENGTH = 1 << 20;
+
+    // The types of the request frames
+    public static final byte COMPUTE = 1;
+    public static final byte STAT = 2;
+    public static final byte BYE = 3;
+
+    // The types of the response frames
+    public static final byte VALUE = 0;
+    public static final byte COUNT = 1;
+    public static final byte TEXT = 2;
+    public static final byte ERROR = 3;
+
+    // The computation and values kinds, indexed by their code
+    private static final String[] COMPUTATION_KINDS = {"MIN", "MAX", "AVG", "COUNT"};
+    private static final String[] VALUES_KINDS = {"GRID", "LIST"};
+
+    private BinaryProtocol() {
+    }
+
+    // This method returns the type of a request frame, whose position is at its type byte
+    public static byte typeOf(ByteBuffer frame) throws InvalidRequestException {
+        byte type = frame.hasRemaining() ? frame.get(frame.position()) : 0;
+        if (type != COMPUTE && type != STAT && type != BYE) {
+            throw new InvalidRequestException("ERR; (InvalidRequestException) Invalid binary request type.");
+        }
+        return type;
+    }
+
+    // This method decodes a COMPUTE frame. The ranges are read as doubles and the expressions are the only text decoded.
+    public static ComputationRequest decodeComputationRequest(ByteBuffer frame) throws InvalidRequestException {
+        ByteBuffer in = frame.duplicate();
+        try {
+            in.get();
+            String computationKind = kind(COMPUTATION_KINDS, in.get());
+            String valuesKind = kind(VALUES_KINDS, in.get());
+            int timeout = in.getInt();
+            int variables = Short.toUnsignedInt(in.getShort());
+            if (timeout < 0 || variables == 0) {
+                throw new InvalidRequestException("ERR; (InvalidRequestException) Invalid computation request format.");
+            }
+            String[] names = new String[variables];
+            double[] bounds = new double[3 * variables];
+            for (int i = 0; i < variables; i++) {
+                byte[] name = new byte[Byte.toUnsignedInt(in.get())];
+                in.get(name);
+                names[i] = new String(name, StandardCharsets.US_ASCII);
+                bounds[3 * i] = in.getDouble();
+                bounds[3 * i + 1] = in.getDouble();
+                bounds[3 * i + 2] = in.getDouble();
+            }
+            String expression = StandardCharsets.UTF_8.decode(in).toString();
+            return new ComputationRequest(valuesKind, computationKind, names, bounds, expression, timeout);
+        } catch (BufferUnderflowException e) {
+            throw new InvalidRequestException("ERR; (InvalidRequestException) Truncated binary request.");
+        }
+    }
+
+    // This method decodes the name of the statistic of a STAT frame
+    public static String decodeStatRequest(ByteBuffer frame) {
+        ByteBuffer in = frame.duplicate();
+        in.get();
+        return StandardCharsets.US_ASCII.decode(in).toString();
+    }
+
+    // This method returns the kind with the given code
+    private static String kind(String[] kinds, byte code) throws InvalidRequestException {
+        if (code < 0 || code >= kinds.length) {
+            throw new InvalidRequestException("ERR; (InvalidRequestException) Invalid computation request format.");
+        }
+        return kinds[code];
+    }
+
+    // This method tells whether the bytes received hold a BYE frame, looking at the complete frame headers from the first one
+    public static boolean containsBye(byte[] received, int length) {
+        int position = 0;
+        while (position + 5 <= length) {
+            int frameLength = ByteBuffer.wrap(received, position, 4).getInt();
+            if (frameLength < 1 || frameLength > MAX_FRAME_LENGTH) {
+                return false;
+            }
+            if (received[position + 4] == BYE) {
+                return true;
+            }
+            position += 4 + frameLength;
+        }
+        return false;
+    }
+
+    // This method encodes the response of a successful computation, which took processingTime nanoseconds
+    public static ByteBuffer encodeResult(long processingTime, ComputationResult result) {
+        if (result.isCount()) {
+            return frame(COUNT, 16).putLong(processingTime).putLong(result.getCount()).flip();
+        }
+        return frame(VALUE, 16).putLong(processingTime).putDouble(result.getValue()).flip();
+    }
+
+    // This method encodes a text response, such as the value of a statistic, which took processingTime nanoseconds
+    public static ByteBuffer encodeText(long processingTime, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        return frame(TEXT, 8 + bytes.length).putLong(processingTime).put(bytes).flip();
+    }
+
+    // This method encodes an error response
+    public static ByteBuffer encodeError(String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        return frame(ERROR, bytes.length).put(bytes).flip();
+    }
+
+    // This method allocates a response frame with the given type and length of its fields, and writes its header
+    private static ByteBuffer frame(byte type, int length) {
+        return ByteBuffer.allocate(5 + length).putInt(1 + length).put(type);
+    }
+}
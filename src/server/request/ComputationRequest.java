@@ -5,12 +5,43 @@ public class ComputationRequest {
     private String computationKind;
     private String variable;
     private String expression;
+    // The names of the variables and the start, increment and end of their ranges, three values per variable,
+    // when the request comes already parsed from the binary protocol; null when the ranges are described by variable
+    private String[] variableNames;
+    private double[] rangeBounds;
+    // The timeout of the computation in milliseconds, 0 if the request does not set one
+    private long timeout;
+    // The indexes of the first point and of the point after the last one of a shard sent by a coordinator, -1 for whole computations
+    private long shardStart = -1;
+    private long shardEnd = -1;
 
     public ComputationRequest(String valuesKind, String computationKind, String variable, String expression) {
+        this(valuesKind, computationKind, variable, expression, 0);
+    }
+
+    public ComputationRequest(String valuesKind, String computationKind, String variable, String expression, long timeout) {
         this.valuesKind = valuesKind;
         this.computationKind = computationKind;
         this.variable = variable;
         this.expression = expression;
+        this.timeout = timeout;
+    }
+
+    public ComputationRequest(String valuesKind, String computationKind, String[] variableNames, double[] rangeBounds, String expression,
+                              long timeout) {
+        this.valuesKind = valuesKind;
+        this.computationKind = computationKind;
+        this.variableNames = variableNames;
+        this.rangeBounds = rangeBounds;
+        this.expression = expression;
+        this.timeout = timeout;
+    }
+
+    // Creates the request of a shard, with the points of index in [shardStart, shardEnd)
+    public ComputationRequest(String valuesKind, String variable, String expression, long shardStart, long shardEnd) {
+        this(valuesKind, "PART", variable, expression, 0);
+        this.shardStart = shardStart;
+        this.shardEnd = shardEnd;
     }
 
     public String getValuesKind() {
@@ -44,5 +75,33 @@ public class ComputationRequest {
     public void setExpression(String expression) {
         this.expression = expression;
     }
+
+    public String[] getVariableNames() {
+        return variableNames;
+    }
+
+    public double[] getRangeBounds() {
+        return rangeBounds;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public boolean isShard() {
+        return shardStart >= 0;
+    }
+
+    public long getShardStart() {
+        return shardStart;
+    }
+
+    public long getShardEnd() {
+        return shardEnd;
+    }
 }
 
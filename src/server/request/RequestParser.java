@@ -1,5 +1,8 @@
 package server.request;
 
+import server.computation.DataComputation;
+import server.computation.ExpressionCache;
+import server.computation.ResultCache;
 import server.exception.*;
 import server.statistics.*;
 
@@ -18,7 +21,8 @@ public class RequestParser {
     }
 
     // This method handles the case where the client requests statistics from the server
-    public String parseStatRequest(String request, ServerStatistics stats) throws InvalidRequestException {
+    public String parseStatRequest(String request, ServerStatistics stats, StageMetrics stageMetrics, ConnectionStatistics connectionStats)
+            throws InvalidRequestException {
         // Check if the request matches the StatRequest format.
         // Depending on the format, we return the appropriate statistic
         if (request.equals("STAT_REQS")){
@@ -29,12 +33,93 @@ public class RequestParser {
         }
         else if (request.equals("STAT_MAX_TIME")) {
             return stats.getMaxProcessingTime();
+        }
+        // Percentiles of the processing times
+        else if (request.equals("STAT_P50_TIME")) {
+            return stats.getProcessingTimePercentile(0.5);
+        }
+        else if (request.equals("STAT_P99_TIME")) {
+            return stats.getProcessingTimePercentile(0.99);
+        }
+        else if (request.equals("STAT_P999_TIME")) {
+            return stats.getProcessingTimePercentile(0.999);
+        }
+        // Counters and rates of the client connections
+        else if (request.equals("STAT_CONNECTIONS")) {
+            return String.valueOf(connectionStats.getConnectionCount());
+        }
+        else if (request.equals("STAT_OPEN_CONNECTIONS")) {
+            return String.valueOf(connectionStats.getOpenConnections());
+        }
+        else if (request.equals("STAT_CONNECTION_RATE")) {
+            return String.valueOf(connectionStats.getConnectionRate());
+        }
+        else if (request.equals("STAT_DISCONNECTION_RATE")) {
+            return String.valueOf(connectionStats.getDisconnectionRate());
+        }
+        // Counters of the cache of compiled expressions
+        else if (request.startsWith("STAT_EXPR_CACHE_")) {
+            return parseExpressionCacheRequest(request, DataComputation.getExpressionCache());
+        }
+        // Counters of the cache of results
+        else if (request.startsWith("STAT_RESULT_CACHE_")) {
+            return parseResultCacheRequest(request, DataComputation.getResultCache());
+        }
+        // Counters of the admission control of the computations
+        else if (request.equals("STAT_REJECTED_REQS")) {
+            return String.valueOf(DataComputation.getAdmissionControl().getRejected());
+        }
+        else if (request.equals("STAT_WAITING_REQS")) {
+            return String.valueOf(DataComputation.getAdmissionControl().getWaiting());
+        }
+        // Time spent in each stage by the computations of a kind, such as STAT_STAGES_MIN_GRID
+        else if (request.startsWith("STAT_STAGES_")) {
+            String[] kinds = request.substring("STAT_STAGES_".length()).split("_");
+            StageStatistics stage = kinds.length == 2 ? stageMetrics.get(kinds[0], kinds[1]) : null;
+            if (stage == null) {
+                throw new InvalidRequestException("ERR; (InvalidRequestException) Invalid StatRequest format.");
+            }
+            return stage.describe();
         } else {
             // If the request does not match any of the expected formats, throw an InvalidRequestException
             throw new InvalidRequestException("ERR; (InvalidRequestException) Invalid StatRequest format.");
         }
     }
 
+    // This method returns the requested counter of the cache of compiled expressions
+    private String parseExpressionCacheRequest(String request, ExpressionCache cache) throws InvalidRequestException {
+        switch (request) {
+            case "STAT_EXPR_CACHE_HITS":
+                return String.valueOf(cache.getHits());
+            case "STAT_EXPR_CACHE_MISSES":
+                return String.valueOf(cache.getMisses());
+            case "STAT_EXPR_CACHE_EVICTIONS":
+                return String.valueOf(cache.getEvictions());
+            default:
+                throw new InvalidRequestException("ERR; (InvalidRequestException) Invalid StatRequest format.");
+        }
+    }
+
+    // This method returns the requested counter of the cache of results
+    private String parseResultCacheRequest(String request, ResultCache cache) throws InvalidRequestException {
+        switch (request) {
+            case "STAT_RESULT_CACHE_HITS":
+                return String.valueOf(cache.getHits());
+            case "STAT_RESULT_CACHE_MISSES":
+                return String.valueOf(cache.getMisses());
+            case "STAT_RESULT_CACHE_HIT_RATE":
+                return String.valueOf(cache.getHitRate());
+            case "STAT_RESULT_CACHE_EVICTIONS":
+                return String.valueOf(cache.getEvictions());
+            case "STAT_RESULT_CACHE_EXPIRATIONS":
+                return String.valueOf(cache.getExpirations());
+            case "STAT_RESULT_CACHE_BYTES":
+                return String.valueOf(cache.getSize());
+            default:
+                throw new InvalidRequestException("ERR; (InvalidRequestException) Invalid StatRequest format.");
+        }
+    }
+
     // This method handles the case where the client requests a computation
     public ComputationRequest parseComputationRequest(String request) throws InvalidRequestException {
         // Split the request into its components
@@ -44,10 +129,28 @@ public class RequestParser {
         if (components.length<3){
             throw new InvalidRequestException("ERR; (InvalidRequestException) Request parts are less than 3");
         }
-        else if ((operations[0].equals("MIN") || operations[0].equals("MAX")
+        else if (operations.length >= 2 && operations.length <= 3
+                && (operations[0].equals("MIN") || operations[0].equals("MAX")
                 || operations[0].equals("AVG") || operations[0].equals("COUNT"))
                 && (operations[1].equals("GRID") || operations[1].equals("LIST"))) {
-                return new ComputationRequest(operations[1], operations[0], components[1], components[2]);
+                // An optional third part sets the timeout of the computation in milliseconds, such as MAX_GRID_5000
+                long timeout = 0;
+                if (operations.length == 3) {
+                    if (!operations[2].matches("^[1-9][0-9]{0,9}$")) {
+                        throw new InvalidRequestException("ERR; (InvalidRequestException) Invalid computation timeout: " + operations[2]);
+                    }
+                    timeout = Long.parseLong(operations[2]);
+                }
+                return new ComputationRequest(operations[1], operations[0], components[1], components[2], timeout);
+        }
+        else if (operations.length == 4 && operations[0].equals("PART")
+                && (operations[1].equals("GRID") || operations[1].equals("LIST"))) {
+                // The shard of a computation sent by a coordinator, with the points of index in [from, to), such as PART_GRID_0_1000
+                if (!operations[2].matches("^(0|[1-9][0-9]{0,17})$") || !operations[3].matches("^(0|[1-9][0-9]{0,17})$")) {
+                    throw new InvalidRequestException("ERR; (InvalidRequestException) Invalid shard: " + operations[2] + "-" + operations[3]);
+                }
+                return new ComputationRequest(operations[1], components[1], components[2],
+                        Long.parseLong(operations[2]), Long.parseLong(operations[3]));
         }
         else{
             // If the request is not valid, throw an InvalidRequestException
@@ -0,0 +1,110 @@
+package server.statistics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// The ConnectionStatistics class counts, without locking, the client connections opened and closed, and their rates per second
+// over the last RATE_WINDOW seconds. These counters replace a log line per connection, which costs too much when clients reconnect at high rates.
+// They are registered as the MBean named server:type=ConnectionStatistics.
+public class ConnectionStatistics implements ConnectionStatisticsMXBean {
+
+    // The number of whole seconds over which the rates are computed
+    private static final int RATE_WINDOW = 10;
+
+    private static final Logger LOGGER = Logger.getLogger(ConnectionStatistics.class.getName());
+
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder disconnections = new LongAdder();
+    // The connections and disconnections of the last seconds, one bucket per second: each bucket holds the second it counts
+    // in its high 32 bits and the count in its low 32 bits, so that it is moved to a new second and counted with a single CAS.
+    // There is one more bucket than the window, for the current second.
+    private final AtomicLongArray connectionBuckets = new AtomicLongArray(RATE_WINDOW + 1);
+    private final AtomicLongArray disconnectionBuckets = new AtomicLongArray(RATE_WINDOW + 1);
+    // The time the seconds are counted from, so that they fit in 31 bits
+    private final long origin = System.nanoTime();
+
+    public ConnectionStatistics() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("server:type=ConnectionStatistics");
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Could not register the connection statistics: {0}", e.getMessage());
+        }
+    }
+
+    // This method records a connection opened by a client
+    public void connected() {
+        connections.increment();
+        count(connectionBuckets);
+    }
+
+    // This method records a connection closed
+    public void disconnected() {
+        disconnections.increment();
+        count(disconnectionBuckets);
+    }
+
+    @Override
+    public long getConnectionCount() {
+        return connections.sum();
+    }
+
+    @Override
+    public long getOpenConnections() {
+        return connections.sum() - disconnections.sum();
+    }
+
+    // Returns the connections opened per second over the last RATE_WINDOW whole seconds
+    @Override
+    public double getConnectionRate() {
+        return rate(connectionBuckets);
+    }
+
+    // Returns the connections closed per second over the last RATE_WINDOW whole seconds
+    @Override
+    public double getDisconnectionRate() {
+        return rate(disconnectionBuckets);
+    }
+
+    // Returns the number of seconds since the origin
+    private long second() {
+        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - origin);
+    }
+
+    // This method counts an event in the bucket of the current second, starting it over if it still counts an older second
+    private void count(AtomicLongArray buckets) {
+        long second = second();
+        int index = (int) (second % buckets.length());
+        while (true) {
+            long bucket = buckets.get(index);
+            long next = bucket >>> 32 == second ? bucket + 1 : second << 32 | 1;
+            if (buckets.compareAndSet(index, bucket, next)) {
+                return;
+            }
+        }
+    }
+
+    // This method sums the buckets of the last RATE_WINDOW whole seconds, and divides by their number
+    private double rate(AtomicLongArray buckets) {
+        long second = second();
+        long events = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            long bucket = buckets.get(i);
+            long age = second - (bucket >>> 32);
+            if (age >= 1 && age <= RATE_WINDOW) {
+                events += bucket & 0xFFFFFFFFL;
+            }
+        }
+        return (double) events / RATE_WINDOW;
+    }
+}
@@ -0,0 +1,13 @@
+package server.statistics;
+
+// The management interface of the ConnectionStatistics, exposed through JMX
+public interface ConnectionStatisticsMXBean {
+
+    long getConnectionCount();
+
+    long getOpenConnections();
+
+    double getConnectionRate();
+
+    double getDisconnectionRate();
+}
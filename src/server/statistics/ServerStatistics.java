@@ -1,25 +1,111 @@
 package server.statistics;
 
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// The ServerStatistics class collects the processing times of the requests without locking: the counters are striped LongAdders,
+// and the times are also recorded in a log-linear histogram with nanosecond resolution, from which percentiles are computed.
+// Times are reported in seconds.
 public class ServerStatistics {
-    private int requestCount;
-    private long totalProcessingTime;
-    private long maxProcessingTime;
 
-    public synchronized void updateStats(long processingTime) {
-        this.requestCount++;
-        this.totalProcessingTime += processingTime;
-        this.maxProcessingTime = Math.max(this.maxProcessingTime, processingTime);
+    // Each power of two of the histogram is split into this many buckets, so a recorded time is off by less than 1%
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Times below 2 * SUB_BUCKETS nanoseconds have a bucket each; then every power of two up to 2^63 has SUB_BUCKETS buckets
+    private static final int BUCKET_COUNT = 2 * SUB_BUCKETS + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+    private final LongAdder requestCount = new LongAdder();
+    private final LongAdder totalProcessingTime = new LongAdder();
+    private final LongAccumulator maxProcessingTime = new LongAccumulator(Math::max, 0);
+
+    // The histogram is striped too: each thread records into the stripe chosen by its id, and the stripes are summed when read
+    private final AtomicLongArray[] histograms;
+
+    public ServerStatistics() {
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+        histograms = new AtomicLongArray[stripes];
+        for (int i = 0; i < stripes; i++) {
+            histograms[i] = new AtomicLongArray(BUCKET_COUNT);
+        }
+    }
+
+    // This method records a request processed in the given number of nanoseconds
+    public void updateStats(long processingTime) {
+        long time = Math.max(0, processingTime);
+        requestCount.increment();
+        totalProcessingTime.add(time);
+        maxProcessingTime.accumulate(time);
+        int stripe = (int) Thread.currentThread().getId() & (histograms.length - 1);
+        histograms[stripe].incrementAndGet(bucketOf(time));
+    }
+
+    public String getRequestCount() {
+        return String.valueOf(requestCount.sum());
+    }
+
+    // Returns the average processing time, 0 if no request has been processed yet
+    public String getAvgProcessingTime() {
+        long count = requestCount.sum();
+        return seconds(count == 0 ? 0 : totalProcessingTime.sum() / count);
+    }
+
+    public String getMaxProcessingTime() {
+        return seconds(maxProcessingTime.get());
+    }
+
+    // Returns the processing time below which the given fraction of the requests fall, 0 if no request has been processed yet.
+    // The time is the upper bound of its histogram bucket, and never more than the maximum time.
+    public String getProcessingTimePercentile(double fraction) {
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (AtomicLongArray histogram : histograms) {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                long count = histogram.get(i);
+                counts[i] += count;
+                total += count;
+            }
+        }
+        if (total == 0) {
+            return seconds(0);
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        int bucket = 0;
+        while (bucket < BUCKET_COUNT - 1 && (seen += counts[bucket]) < rank) {
+            bucket++;
+        }
+        return seconds(Math.min(upperBoundOf(bucket), maxProcessingTime.get()));
     }
 
-    public synchronized String getRequestCount() {
-        return String.valueOf(this.requestCount);
+    // Returns the bucket of the histogram holding the given time
+    private static int bucketOf(long time) {
+        if (time < 2 * SUB_BUCKETS) {
+            return (int) time;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(time) - SUB_BUCKET_BITS;
+        // The top SUB_BUCKET_BITS + 1 bits of the time, between SUB_BUCKETS and 2 * SUB_BUCKETS - 1
+        int subBucket = (int) (time >>> shift);
+        return 2 * SUB_BUCKETS + (shift - 1) * SUB_BUCKETS + (subBucket - SUB_BUCKETS);
     }
 
-    public synchronized String getAvgProcessingTime() {
-        return String.valueOf((this.totalProcessingTime / this.requestCount)/1000.0);
+    // Returns the largest time held by the given bucket
+    private static long upperBoundOf(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - 2 * SUB_BUCKETS) / SUB_BUCKETS + 1;
+        long subBucket = (bucket - 2 * SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
     }
 
-    public synchronized String getMaxProcessingTime() {
-        return String.valueOf(this.maxProcessingTime/1000.0);
+    // Formats nanoseconds as seconds, with as many decimals as needed and at least one
+    static String seconds(long nanos) {
+        BigDecimal seconds = BigDecimal.valueOf(nanos, 9).stripTrailingZeros();
+        if (seconds.scale() < 1) {
+            seconds = seconds.setScale(1);
+        }
+        return seconds.toPlainString();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,68 @@
+package server.statistics;
+
+import server.computation.StageTimes;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// The StageMetrics class keeps the StageStatistics of every kind of computation (MIN, MAX, AVG, COUNT) and of values (GRID, LIST),
+// and registers them as MBeans named server:type=StageMetrics,computation=<kind>,values=<kind>.
+// The stages are timed unless the server is started with -Dserver.stageMetrics=false; then no time is measured at all.
+public class StageMetrics {
+
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("server.stageMetrics", "true"));
+
+    private static final String[] COMPUTATION_KINDS = {"MIN", "MAX", "AVG", "COUNT"};
+    private static final String[] VALUES_KINDS = {"GRID", "LIST"};
+
+    private static final Logger LOGGER = Logger.getLogger(StageMetrics.class.getName());
+
+    // The statistics of each kind, keyed by <computation kind>_<values kind>; the map is not modified after construction
+    private final Map<String, StageStatistics> statistics = new HashMap<>();
+
+    public StageMetrics() {
+        for (String computationKind : COMPUTATION_KINDS) {
+            for (String valuesKind : VALUES_KINDS) {
+                statistics.put(computationKind + "_" + valuesKind, new StageStatistics(computationKind, valuesKind));
+            }
+        }
+        if (ENABLED) {
+            register();
+        }
+    }
+
+    // This method registers the statistics on the platform MBean server, unless statistics of another instance are already registered
+    private void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (StageStatistics stage : statistics.values()) {
+            try {
+                ObjectName name = new ObjectName("server:type=StageMetrics,computation=" + stage.getComputationKind()
+                        + ",values=" + stage.getValuesKind());
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(stage, name);
+                }
+            } catch (JMException e) {
+                LOGGER.log(Level.WARNING, "Could not register the stage metrics: " + e.getMessage());
+            }
+        }
+    }
+
+    // Returns the statistics of the given kinds, or null if they are not valid
+    public StageStatistics get(String computationKind, String valuesKind) {
+        return statistics.get(computationKind + "_" + valuesKind);
+    }
+
+    // This method adds the stage times of a request of the given kinds
+    public void record(String computationKind, String valuesKind, StageTimes times) {
+        StageStatistics stage = get(computationKind, valuesKind);
+        if (stage != null) {
+            stage.record(times);
+        }
+    }
+}
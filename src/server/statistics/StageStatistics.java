@@ -0,0 +1,94 @@
+package server.statistics;
+
+import server.computation.StageTimes;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// The StageStatistics class sums, without locking, the time spent in each stage by the requests of a kind of computation
+// (such as MIN_GRID): parsing and compiling the expressions, building the variable ranges, merging them and evaluating the points,
+// with the number of points evaluated and of instructions executed.
+public class StageStatistics implements StageStatisticsMXBean {
+
+    private final String computationKind;
+    private final String valuesKind;
+
+    private final LongAdder requestCount = new LongAdder();
+    private final LongAdder parseTime = new LongAdder();
+    private final LongAdder rangeTime = new LongAdder();
+    private final LongAdder mergeTime = new LongAdder();
+    private final LongAdder evaluationTime = new LongAdder();
+    private final LongAdder pointsEvaluated = new LongAdder();
+    private final LongAdder instructionsExecuted = new LongAdder();
+
+    public StageStatistics(String computationKind, String valuesKind) {
+        this.computationKind = computationKind;
+        this.valuesKind = valuesKind;
+    }
+
+    // This method adds the stage times of a request
+    public void record(StageTimes times) {
+        requestCount.increment();
+        parseTime.add(times.getParseTime());
+        rangeTime.add(times.getRangeTime());
+        mergeTime.add(times.getMergeTime());
+        evaluationTime.add(times.getEvaluationTime());
+        pointsEvaluated.add(times.getPoints());
+        instructionsExecuted.add(times.getInstructions());
+    }
+
+    @Override
+    public String getComputationKind() {
+        return computationKind;
+    }
+
+    @Override
+    public String getValuesKind() {
+        return valuesKind;
+    }
+
+    @Override
+    public long getRequestCount() {
+        return requestCount.sum();
+    }
+
+    @Override
+    public long getParseTime() {
+        return parseTime.sum();
+    }
+
+    @Override
+    public long getRangeTime() {
+        return rangeTime.sum();
+    }
+
+    @Override
+    public long getMergeTime() {
+        return mergeTime.sum();
+    }
+
+    @Override
+    public long getEvaluationTime() {
+        return evaluationTime.sum();
+    }
+
+    @Override
+    public long getPointsEvaluated() {
+        return pointsEvaluated.sum();
+    }
+
+    @Override
+    public long getInstructionsExecuted() {
+        return instructionsExecuted.sum();
+    }
+
+    // Returns the counters as a single response, with the total times in seconds
+    public String describe() {
+        return "requests=" + getRequestCount()
+                + ",parse=" + ServerStatistics.seconds(getParseTime())
+                + ",ranges=" + ServerStatistics.seconds(getRangeTime())
+                + ",merge=" + ServerStatistics.seconds(getMergeTime())
+                + ",evaluate=" + ServerStatistics.seconds(getEvaluationTime())
+                + ",points=" + getPointsEvaluated()
+                + ",instructions=" + getInstructionsExecuted();
+    }
+}
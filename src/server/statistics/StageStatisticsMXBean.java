@@ -0,0 +1,24 @@
+package server.statistics;
+
+// The management interface of the StageStatistics of a kind of computation, exposed through JMX.
+// Times are in nanoseconds, summed over all the requests of that kind.
+public interface StageStatisticsMXBean {
+
+    String getComputationKind();
+
+    String getValuesKind();
+
+    long getRequestCount();
+
+    long getParseTime();
+
+    long getRangeTime();
+
+    long getMergeTime();
+
+    long getEvaluationTime();
+
+    long getPointsEvaluated();
+
+    long getInstructionsExecuted();
+}